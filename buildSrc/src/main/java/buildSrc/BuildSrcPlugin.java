@@ -3,20 +3,32 @@ package buildSrc;
 import buildSrc.extensions.MinecraftArtifactCacheExtension;
 import buildSrc.extensions.MinecraftSourceExtension;
 import buildSrc.tasks.*;
+import buildSrc.utils.Artifact;
 import buildSrc.utils.GameArtifact;
+import buildSrc.utils.LibraryResolver;
 import buildSrc.utils.Utils;
 import buildSrc.utils.VersionJson;
+import buildSrc.utils.merge.SideMerger;
+import buildSrc.utils.mirror.MirrorBundle;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
-import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.repositories.MavenArtifactRepository;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Delete;
 import org.gradle.api.tasks.TaskProvider;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 public class BuildSrcPlugin implements Plugin<Project> {
 
@@ -24,9 +36,13 @@ public class BuildSrcPlugin implements Plugin<Project> {
     public void apply(@NotNull final Project project) {
         final MinecraftSourceExtension minecraftSourceExtension = project.getExtensions().create("minecraft", MinecraftSourceExtension.class, project);
         project.getExtensions().create("minecraftArtifact", MinecraftArtifactCacheExtension.class, project);
+        DecompileJarTask.getOrCreateWorkerConfiguration(project);
+        RenameJarTask.getOrCreateWorkerConfiguration(project);
 
         final TaskProvider<?> cleanMinecraft = project.getTasks().register("cleanMinecraft", Delete.class, task -> {
             task.delete(project.getLayout().getProjectDirectory().dir("game"));
+            task.delete(project.getLayout().getBuildDirectory().file("minecraft/extraction.manifest"));
+            task.delete(project.getLayout().getBuildDirectory().file("minecraft/pending.changes"));
 
             task.getOutputs().upToDateWhen(o -> false);
             task.getOutputs().doNotCacheIf("Always execute cleanMinecraft", o -> true);
@@ -47,24 +63,98 @@ public class BuildSrcPlugin implements Plugin<Project> {
         });
 
         project.afterEvaluate(postEvalProject -> {
+            final boolean pipelined = minecraftSourceExtension.getIsPipelined().get();
+            final int lookahead = Math.max(0, minecraftSourceExtension.getPipelineLookahead().get());
+
+            final int prefetch = Math.max(0, minecraftSourceExtension.getPrefetchCount().get());
+
+            final List<String> versions = minecraftSourceExtension.getVersionsToGenerate().get();
+            final MinecraftArtifactCacheExtension cacheExtension = project.getExtensions().getByType(MinecraftArtifactCacheExtension.class);
+            final LibraryResolver libraries = new LibraryResolver(project, versions, version -> {
+                try {
+                    return Arrays.stream(VersionJson.get(cacheExtension.cacheVersionManifest(version)).getLibraries())
+                            .map(VersionJson.Library::getArtifact)
+                            .collect(Collectors.toList());
+                } catch (FileNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            final List<TaskProvider<?>> commits = new ArrayList<>();
             TaskProvider<?> previous = cleanMinecraft;
-            for (String version : minecraftSourceExtension.getVersionsToGenerate().get()) {
-                previous = buildVersionTaskTree(project, version, previous);
+            for (int i = 0; i < versions.size(); i++) {
+                final String version = versions.get(i);
+                final List<String> prefetched = versions.subList(i + 1, Math.min(versions.size(), i + 1 + prefetch));
+                if (pipelined) {
+                    // Only allow a version to start preparing once the version lookahead steps before it has been committed.
+                    final int gateIndex = commits.size() - lookahead - 1;
+                    final TaskProvider<?> gate = gateIndex >= 0 ? commits.get(gateIndex) : null;
+                    previous = buildVersionTaskTree(project, version, prefetched, libraries, gate, previous);
+                } else {
+                    previous = buildVersionTaskTree(project, version, prefetched, libraries, previous, previous);
+                }
+                commits.add(previous);
+            }
+
+            if (minecraftSourceExtension.getIsDirectToGit().get() && minecraftSourceExtension.getCheckoutFinalVersion().get()) {
+                final TaskProvider<?> lastCommit = previous;
+                previous = project.getTasks().register("checkoutMinecraft", CheckoutCommitTask.class, task -> {
+                    task.getProjectDirectory().set(project.getLayout().getProjectDirectory().dir("game"));
+                    task.getExtractionManifest().set(project.getLayout().getBuildDirectory().file("minecraft/extraction.manifest"));
+                    task.getPendingChanges().set(project.getLayout().getBuildDirectory().file("minecraft/pending.changes"));
+
+                    task.dependsOn(lastCommit);
+
+                    task.setGroup("build");
+                    task.setDescription("Checks out the last committed Minecraft version into the game directory.");
+                });
             }
 
             TaskProvider<?> finalPrevious = previous;
             final TaskProvider<?> build = project.getTasks().register("build", task -> {
                 task.dependsOn(finalPrevious);
+                task.dependsOn(project.getTasks().withType(RemapLineNumbersTask.class));
                 task.setGroup("build");
                 task.setDescription("Builds all Minecraft versions.");
                 task.getOutputs().upToDateWhen(o -> false);
             });
-        });
 
-        setupRepositories(project);
+            project.getTasks().register("packMirrorBundle", PackMirrorBundleTask.class, task -> {
+                task.getMinecraftVersions().set(versions);
+                task.getBundle().set(project.getLayout().getBuildDirectory().file("minecraft/mirror.zip"));
+                task.usesService(cacheExtension.getService());
+
+                task.setGroup("build");
+                task.setDescription("Packs everything which is needed to build the configured versions offline into a single mirror bundle.");
+            });
+
+            setupRepositories(project, cacheExtension);
+        });
     }
 
-    private static void setupRepositories(final Project project) {
+    private static void setupRepositories(final Project project, final MinecraftArtifactCacheExtension cacheExtension) {
+        final MirrorBundle mirror = cacheExtension.getMirror();
+        if (mirror != null) {
+            // Serve all libraries from a local maven repository, which is extracted from the bundle in one pass.
+            final File repository = cacheExtension.getCacheDirectory().dir("mirror/libraries").get().getAsFile();
+            try {
+                mirror.extractLibraries(repository);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not extract the libraries of the mirror bundle: " + mirror.getFile(), e);
+            }
+
+            project.getRepositories().maven(e -> {
+                e.setName("MinecraftMirror");
+                e.setUrl(repository);
+                // The worker tools are packed with their poms, so their dependencies resolve. Game libraries only have their jar.
+                e.metadataSources(m -> {
+                    m.mavenPom();
+                    m.artifact();
+                });
+            });
+            return;
+        }
+
         //Add Known repos
         project.getRepositories().maven(e -> {
             e.setUrl(Utils.FORGE_MAVEN);
@@ -81,14 +171,32 @@ public class BuildSrcPlugin implements Plugin<Project> {
         project.getRepositories().mavenCentral(); //Needed for MCP Deps
     }
 
-    private static TaskProvider<?> buildVersionTaskTree(final Project project, final String minecraftVersion, TaskProvider<?> previous) {
+    /**
+     * Builds the task chain for a single version.
+     *
+     * @param prefetchedVersions The versions whose artifacts are downloaded in the background, once the artifacts of this version are available.
+     * @param libraries The resolver of the libraries, shared by all versions.
+     * @param preparationGate The task that has to complete before the version specific artifacts are downloaded, renamed and decompiled.
+     * @param previousCommit The task that has to complete before the shared game directory is touched by this version.
+     * @return The task which commits the version.
+     */
+    private static TaskProvider<?> buildVersionTaskTree(final Project project, final String minecraftVersion, final List<String> prefetchedVersions, final LibraryResolver libraries, @Nullable final TaskProvider<?> preparationGate, final TaskProvider<?> previousCommit) {
         final MinecraftArtifactCacheExtension cacheExtension = project.getExtensions().getByType(MinecraftArtifactCacheExtension.class);
+        final MinecraftSourceExtension minecraftSourceExtension = project.getExtensions().getByType(MinecraftSourceExtension.class);
+        final boolean joined = minecraftSourceExtension.getIsJoined().get();
+        final List<String> sides = joined ? Arrays.asList(SideMerger.CLIENT, SideMerger.SERVER) : Collections.emptyList();
 
         final TaskProvider<MinecraftDownloadingTask> downloader = project.getTasks().register("downloadMinecraft" + minecraftVersion, MinecraftDownloadingTask.class, task -> {
             task.getMinecraftVersion().set(minecraftVersion);
+            task.getCacheDirectory().set(cacheExtension.getCacheDirectory());
+            task.getPrefetchVersions().set(prefetchedVersions);
+            if (joined) {
+                task.getArtifacts().set(Arrays.asList(GameArtifact.VERSION_MANIFEST, GameArtifact.CLIENT_JAR, GameArtifact.CLIENT_MAPPINGS, GameArtifact.SERVER_JAR, GameArtifact.SERVER_MAPPINGS));
+            }
+            task.usesService(cacheExtension.getService());
 
-            if (previous != null) {
-                task.dependsOn(previous);
+            if (preparationGate != null) {
+                task.dependsOn(preparationGate);
             }
 
             task.setGroup("Setup Minecraft " + minecraftVersion);
@@ -99,6 +207,7 @@ public class BuildSrcPlugin implements Plugin<Project> {
             task.getInputJar().fileProvider(downloader.map(downloadingTask -> downloadingTask.getOutputFiles().get(GameArtifact.CLIENT_JAR)));
             task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("renamed.jar")));
             task.getMappingFile().fileProvider(downloader.map(downloadingTask -> downloadingTask.getOutputFiles().get(GameArtifact.CLIENT_MAPPINGS)));
+            task.usesService(minecraftSourceExtension.getHeavyWorkerService());
 
             task.dependsOn(downloader);
 
@@ -107,21 +216,15 @@ public class BuildSrcPlugin implements Plugin<Project> {
         });
 
         final TaskProvider<DecompileJarTask> decompiler = project.getTasks().register("decompileMinecraft" + minecraftVersion, DecompileJarTask.class, task -> {
-            final VersionJson versionJson;
-            try {
-                versionJson = VersionJson.get(cacheExtension.cacheVersionManifest(minecraftVersion));
-            } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
-            }
-
             task.getInputJar().set(renamer.flatMap(RenameJarTask::getOutputJar));
             task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("decompiled.jar")));
+            task.getLineMappingFile().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("decompiled.linemap")));
+            task.getDecompilationMemoDirectory().set(cacheExtension.getCacheDirectory().dir("decompiled-classes"));
+            task.getLibraryCacheDirectory().set(cacheExtension.getCacheDirectory().dir("decompiler-libraries"));
 
-            final Configuration dependencies = project.getConfigurations().detachedConfiguration();
-            Arrays.stream(versionJson.getLibraries()).forEach(library -> {
-                dependencies.getDependencies().add(project.getDependencies().create(library.getArtifact().toString()));
-            });
-            task.getDecompileClasspath().setFrom(dependencies);
+            // Resolved on first use, together with the libraries of all other versions.
+            task.getDecompileClasspath().setFrom((Callable<List<File>>) () -> libraries.getFiles(minecraftVersion));
+            task.usesService(minecraftSourceExtension.getHeavyWorkerService());
 
             task.dependsOn(renamer);
 
@@ -129,12 +232,55 @@ public class BuildSrcPlugin implements Plugin<Project> {
             task.setDescription("Decompiles the Minecraft " + minecraftVersion + " renamed jar.");
         });
 
+        project.getTasks().register("remapLinesMinecraft" + minecraftVersion, RemapLineNumbersTask.class, task -> {
+            task.getInputJar().set(renamer.flatMap(RenameJarTask::getOutputJar));
+            task.getLineMappingFile().set(decompiler.flatMap(DecompileJarTask::getLineMappingFile));
+            task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("linemapped.jar")));
+
+            task.setGroup("Setup Minecraft " + minecraftVersion);
+            task.setDescription("Remaps the line numbers of the Minecraft " + minecraftVersion + " renamed jar to its decompiled sources.");
+        });
+
+        // In the joined mode the server side is decompiled as well, and both sides are merged into one jar.
+        final TaskProvider<MergeSidesTask> merger = joined ? buildServerTaskTree(project, minecraftVersion, libraries, downloader, decompiler) : null;
+        final Provider<RegularFile> decompiledJar = merger != null ? merger.flatMap(MergeSidesTask::getOutputJar) : decompiler.flatMap(DecompileJarTask::getOutputJar);
+        final TaskProvider<?> decompiled = merger != null ? merger : decompiler;
+
+        if (minecraftSourceExtension.getIsDirectToGit().get()) {
+            return project.getTasks().register("commitMinecraft" + minecraftVersion, CommitDecompiledJarTask.class, task -> {
+                task.getDecompiledJar().set(decompiledJar);
+                for (final String side : sides) {
+                    task.getSideSourceDirectories().put(side, "src/" + side + "/java");
+                    task.getSideResourceDirectories().put(side, "src/" + side + "/resources");
+                }
+                task.getLibraries().set(project.provider(() -> libraries.getLibraries(minecraftVersion).stream().map(Artifact::toString).collect(Collectors.toList())));
+                task.getCommitMessage().set("Minecraft " + minecraftVersion);
+                task.getProjectDirectory().set(project.getLayout().getProjectDirectory().dir("game"));
+                task.getPendingChanges().set(project.getLayout().getBuildDirectory().file("minecraft/pending.changes"));
+                task.getPackingService().set(minecraftSourceExtension.getPackingService());
+                task.usesService(minecraftSourceExtension.getPackingService());
+
+                task.dependsOn(decompiled);
+                task.dependsOn(previousCommit);
+
+                task.setGroup("Setup Minecraft " + minecraftVersion);
+                task.setDescription("Commits the Minecraft " + minecraftVersion + " decompiled jar straight into git.");
+            });
+        }
+
         final TaskProvider<ExtractSourcesTask> extractSources = project.getTasks().register("extractMinecraft" + minecraftVersion, ExtractSourcesTask.class, task -> {
-            task.getDecompiledJar().set(decompiler.flatMap(DecompileJarTask::getOutputJar));
+            task.getDecompiledJar().set(decompiledJar);
             task.getSourceFilesDirectory().set(project.getLayout().getProjectDirectory().dir("game").dir("src/main/java"));
             task.getResourceFilesDirectory().set(project.getLayout().getProjectDirectory().dir("game").dir("src/main/resources"));
+            for (final String side : sides) {
+                task.getSideSourceDirectories().put(side, project.getLayout().getProjectDirectory().dir("game").dir("src/" + side + "/java").getAsFile());
+                task.getSideResourceDirectories().put(side, project.getLayout().getProjectDirectory().dir("game").dir("src/" + side + "/resources").getAsFile());
+            }
+            task.getExtractionManifest().set(project.getLayout().getBuildDirectory().file("minecraft/extraction.manifest"));
+            task.getPendingChanges().set(project.getLayout().getBuildDirectory().file("minecraft/pending.changes"));
 
-            task.dependsOn(decompiler);
+            task.dependsOn(decompiled);
+            task.dependsOn(previousCommit);
 
             task.setGroup("Setup Minecraft " + minecraftVersion);
             task.setDescription("Extracts the Minecraft " + minecraftVersion + " decompiled jar.");
@@ -143,6 +289,9 @@ public class BuildSrcPlugin implements Plugin<Project> {
         final TaskProvider<EnvironmentSetupTask> setupEnvironment = project.getTasks().register("setupEnvironment" + minecraftVersion, EnvironmentSetupTask.class, task -> {
             task.getMinecraftVersion().set(minecraftVersion);
             task.getProjectDirectory().set(project.getLayout().getProjectDirectory().dir("game"));
+            task.getPendingChanges().set(project.getLayout().getBuildDirectory().file("minecraft/pending.changes"));
+            task.getLibraries().set(project.provider(() -> libraries.getLibraries(minecraftVersion).stream().map(Artifact::toString).collect(Collectors.toList())));
+            task.getSides().set(sides);
 
             task.dependsOn(extractSources);
 
@@ -153,6 +302,9 @@ public class BuildSrcPlugin implements Plugin<Project> {
         final TaskProvider<CreateCommitTask> commit = project.getTasks().register("commitMinecraft" + minecraftVersion, CreateCommitTask.class, task -> {
             task.getCommitMessage().set("Minecraft " + minecraftVersion);
             task.getProjectDirectory().set(project.getLayout().getProjectDirectory().dir("game"));
+            task.getPendingChanges().set(project.getLayout().getBuildDirectory().file("minecraft/pending.changes"));
+            task.getPackingService().set(minecraftSourceExtension.getPackingService());
+            task.usesService(minecraftSourceExtension.getPackingService());
 
             task.dependsOn(setupEnvironment);
 
@@ -162,4 +314,65 @@ public class BuildSrcPlugin implements Plugin<Project> {
 
         return commit;
     }
+
+    /**
+     * Builds the tasks which unbundle, rename and decompile the server jar of a version, and merge it with the client.
+     * The server is decompiled after the client, so every class which is identical on both sides is served from the decompilation memo.
+     *
+     * @return The task which merges the decompiled client and server jars.
+     */
+    private static TaskProvider<MergeSidesTask> buildServerTaskTree(final Project project, final String minecraftVersion, final LibraryResolver libraries, final TaskProvider<MinecraftDownloadingTask> downloader, final TaskProvider<DecompileJarTask> clientDecompiler) {
+        final MinecraftArtifactCacheExtension cacheExtension = project.getExtensions().getByType(MinecraftArtifactCacheExtension.class);
+        final MinecraftSourceExtension minecraftSourceExtension = project.getExtensions().getByType(MinecraftSourceExtension.class);
+
+        final TaskProvider<UnbundleServerJarTask> unbundler = project.getTasks().register("unbundleServerMinecraft" + minecraftVersion, UnbundleServerJarTask.class, task -> {
+            task.getServerJar().fileProvider(downloader.map(downloadingTask -> downloadingTask.getOutputFiles().get(GameArtifact.SERVER_JAR)));
+            task.getMappingFile().fileProvider(downloader.map(downloadingTask -> downloadingTask.getOutputFiles().get(GameArtifact.SERVER_MAPPINGS)));
+            task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("server.jar")));
+
+            task.dependsOn(downloader);
+
+            task.setGroup("Setup Minecraft " + minecraftVersion);
+            task.setDescription("Strips the libraries from the Minecraft " + minecraftVersion + " server jar.");
+        });
+
+        final TaskProvider<RenameJarTask> renamer = project.getTasks().register("renameServerMinecraft" + minecraftVersion, RenameJarTask.class, task -> {
+            task.getInputJar().set(unbundler.flatMap(UnbundleServerJarTask::getOutputJar));
+            task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("server-renamed.jar")));
+            task.getMappingFile().fileProvider(downloader.map(downloadingTask -> downloadingTask.getOutputFiles().get(GameArtifact.SERVER_MAPPINGS)));
+            task.usesService(minecraftSourceExtension.getHeavyWorkerService());
+
+            task.dependsOn(unbundler);
+
+            task.setGroup("Setup Minecraft " + minecraftVersion);
+            task.setDescription("Renames the Minecraft " + minecraftVersion + " server jar.");
+        });
+
+        final TaskProvider<DecompileJarTask> decompiler = project.getTasks().register("decompileServerMinecraft" + minecraftVersion, DecompileJarTask.class, task -> {
+            task.getInputJar().set(renamer.flatMap(RenameJarTask::getOutputJar));
+            task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("server-decompiled.jar")));
+            task.getLineMappingFile().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("server-decompiled.linemap")));
+            task.getDecompilationMemoDirectory().set(cacheExtension.getCacheDirectory().dir("decompiled-classes"));
+            task.getLibraryCacheDirectory().set(cacheExtension.getCacheDirectory().dir("decompiler-libraries"));
+            task.getDecompileClasspath().setFrom((Callable<List<File>>) () -> libraries.getFiles(minecraftVersion));
+            task.usesService(minecraftSourceExtension.getHeavyWorkerService());
+
+            task.dependsOn(renamer);
+            task.mustRunAfter(clientDecompiler);
+
+            task.setGroup("Setup Minecraft " + minecraftVersion);
+            task.setDescription("Decompiles the Minecraft " + minecraftVersion + " renamed server jar.");
+        });
+
+        return project.getTasks().register("mergeSidesMinecraft" + minecraftVersion, MergeSidesTask.class, task -> {
+            task.getClientJar().set(clientDecompiler.flatMap(DecompileJarTask::getOutputJar));
+            task.getServerJar().set(decompiler.flatMap(DecompileJarTask::getOutputJar));
+            task.getOutputJar().set(project.getLayout().getBuildDirectory().map(build -> build.dir("minecraft").dir(minecraftVersion).file("joined.jar")));
+
+            task.dependsOn(clientDecompiler, decompiler);
+
+            task.setGroup("Setup Minecraft " + minecraftVersion);
+            task.setDescription("Merges the decompiled Minecraft " + minecraftVersion + " client and server jars.");
+        });
+    }
 }
@@ -1,78 +1,239 @@
 
 package buildSrc.extensions;
 
+import buildSrc.services.MinecraftArtifactCacheService;
 import buildSrc.utils.*;
+import buildSrc.utils.mirror.MirrorBundle;
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.gradle.api.Project;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.net.URL;
-import java.util.EnumMap;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import static buildSrc.utils.FileDownloadingUtils.downloadThrowing;
 
 
 public abstract class MinecraftArtifactCacheExtension {
 
     private final Project project;
-    private final Map<ICacheFileSelector, File> cacheFiles;
+    private final Provider<MinecraftArtifactCacheService> service;
 
     @Inject
     public MinecraftArtifactCacheExtension(Project project) {
         this.project = project;
-        this.cacheFiles = new ConcurrentHashMap<>();
 
         this.getCacheDirectory().fileProvider(project.provider(() -> new File(project.getGradle().getGradleHomeDir(), "caches/minecraft")));
         this.getCacheDirectory().finalizeValueOnRead();
+        this.getLauncherManifestUrl().convention(project.getProviders().gradleProperty("minecraft.launcherManifestUrl").orElse(UrlConstants.MOJANG_MANIFEST));
+        this.getLauncherManifestUrl().finalizeValueOnRead();
+        this.getMaxConcurrentDownloads().convention(project.getProviders().gradleProperty("minecraft.downloadThreads").map(Integer::parseInt).orElse(4));
+        this.getMaxConcurrentDownloads().finalizeValueOnRead();
+        this.getMirrorBundle().convention(project.getLayout().getProjectDirectory().file(project.getProviders().gradleProperty("minecraft.mirrorBundle")));
+        this.getMirrorBundle().finalizeValueOnRead();
+
+        this.service = project.getGradle().getSharedServices().registerIfAbsent("minecraftArtifactCache", MinecraftArtifactCacheService.class, spec -> {
+            spec.getParameters().getMaxConcurrentDownloads().set(this.getMaxConcurrentDownloads());
+        });
     }
 
     public abstract DirectoryProperty getCacheDirectory();
 
+    /**
+     * The url of the launcher manifest, all other artifacts are located through it.
+     * Can be pointed at a local stand-in of the Mojang servers.
+     */
+    public abstract Property<String> getLauncherManifestUrl();
+
+    /**
+     * The maximal amount of artifacts which are downloaded at the same time, including prefetches.
+     */
+    public abstract Property<Integer> getMaxConcurrentDownloads();
+
+    /**
+     * A bundle packed by {@link buildSrc.tasks.PackMirrorBundleTask}. When set, every artifact is served from the bundle
+     * instead of the network.
+     */
+    public abstract RegularFileProperty getMirrorBundle();
+
+    /**
+     * @return The opened mirror bundle, or null if no bundle is configured.
+     */
+    @Nullable
+    public final MirrorBundle getMirror() {
+        if (!this.getMirrorBundle().isPresent())
+            return null;
+
+        try {
+            return MirrorBundle.open(this.getMirrorBundle().get().getAsFile());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open the mirror bundle: " + this.getMirrorBundle().get().getAsFile(), e);
+        }
+    }
+
+    public final LauncherManifestIndex getLauncherManifest() {
+        try {
+            return LauncherManifestIndex.get(this.cacheLauncherMetadata());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the launcher manifest", e);
+        }
+    }
+
+    /**
+     * The build service which holds the cache files of this build. Tasks which download through this extension should declare it through {@code usesService}.
+     */
+    public final Provider<MinecraftArtifactCacheService> getService() {
+        return this.service;
+    }
+
+    /**
+     * @return A snapshot of the cache files which have been downloaded or verified during this build.
+     */
     public final Map<ICacheFileSelector, File> getCacheFiles() {
-        //return ImmutableMap.copyOf(this.cacheFiles);
-        return new HashMap<>();
+        return this.service.get().getLoadedFiles();
     }
 
     public final Map<GameArtifact, File> cacheGameVersion(final String gameVersion, ArtifactSide side) {
-        final Map<GameArtifact, File> result = new EnumMap<>(GameArtifact.class);
+        final Set<GameArtifact> artifacts = EnumSet.noneOf(GameArtifact.class);
+        for (final GameArtifact artifact : GameArtifact.values()) {
+            GameArtifactUtils.doWhenRequired(artifact, side, () -> artifacts.add(artifact));
+        }
+
+        return this.cacheGameArtifacts(gameVersion, artifacts);
+    }
+
+    /**
+     * Downloads the given artifacts of a version concurrently, and waits for all of them.
+     *
+     * @return The cache file of each requested artifact.
+     */
+    public final Map<GameArtifact, File> cacheGameArtifacts(final String gameVersion, final Collection<GameArtifact> artifacts) {
+        // The other artifacts are located through the version manifest, fetch it up front so they do not all wait on it.
+        if (artifacts.stream().anyMatch(artifact -> artifact != GameArtifact.LAUNCHER_MANIFEST)) {
+            this.cacheVersionManifest(gameVersion);
+        }
 
-        GameArtifactUtils.doWhenRequired(GameArtifact.LAUNCHER_MANIFEST, side, () -> result.put(GameArtifact.LAUNCHER_MANIFEST, this.cacheLauncherMetadata()));
-        GameArtifactUtils.doWhenRequired(GameArtifact.VERSION_MANIFEST, side, () -> result.put(GameArtifact.VERSION_MANIFEST, this.cacheVersionManifest(gameVersion)));
-        GameArtifactUtils.doWhenRequired(GameArtifact.CLIENT_JAR, side, () -> result.put(GameArtifact.CLIENT_JAR, this.cacheVersionArtifact(gameVersion, ArtifactSide.CLIENT)));
-        GameArtifactUtils.doWhenRequired(GameArtifact.SERVER_JAR, side, () -> result.put(GameArtifact.SERVER_JAR, this.cacheVersionArtifact(gameVersion, ArtifactSide.SERVER)));
-        GameArtifactUtils.doWhenRequired(GameArtifact.CLIENT_MAPPINGS, side, () -> result.put(GameArtifact.CLIENT_MAPPINGS, this.cacheVersionMappings(gameVersion, ArtifactSide.CLIENT)));
-        GameArtifactUtils.doWhenRequired(GameArtifact.SERVER_MAPPINGS, side, () -> result.put(GameArtifact.SERVER_MAPPINGS, this.cacheVersionMappings(gameVersion, ArtifactSide.SERVER)));
+        final Map<GameArtifact, CompletableFuture<File>> pending = new EnumMap<>(GameArtifact.class);
+        for (final GameArtifact artifact : artifacts) {
+            pending.put(artifact, this.cacheGameArtifactAsync(gameVersion, artifact));
+        }
 
+        final Map<GameArtifact, File> result = new EnumMap<>(GameArtifact.class);
+        for (final Map.Entry<GameArtifact, CompletableFuture<File>> entry : pending.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException(String.format("Failed to download %s for %s", entry.getKey(), gameVersion), e.getCause());
+            }
+        }
         return result;
     }
 
+    /**
+     * Starts downloading the given artifacts of a version in the background, without waiting for them.
+     * A later request for one of the artifacts waits for its running download instead of starting a new one.
+     */
+    public final void prefetchGameArtifacts(final String gameVersion, final Collection<GameArtifact> artifacts) {
+        // Only queue the artifacts once the version manifest is there, so no download thread waits on a queued download.
+        this.cacheAsync(ICacheFileSelector.forVersionJson(gameVersion), () -> downloadVersionManifestToCache(project, getCacheDirectory().get().getAsFile(), gameVersion))
+                .whenComplete((versionManifest, failure) -> {
+                    if (failure != null) {
+                        // The task which actually needs the version retries and reports the failure.
+                        project.getLogger().info("Failed to prefetch the version manifest of {}", gameVersion, failure);
+                        return;
+                    }
+
+                    for (final GameArtifact artifact : artifacts) {
+                        this.cacheGameArtifactAsync(gameVersion, artifact).whenComplete((file, artifactFailure) -> {
+                            if (artifactFailure != null) {
+                                project.getLogger().info("Failed to prefetch {} for {}", artifact, gameVersion, artifactFailure);
+                            }
+                        });
+                    }
+                });
+    }
+
+    public final File cacheGameArtifact(final String gameVersion, final GameArtifact artifact) {
+        switch (artifact) {
+            case LAUNCHER_MANIFEST:
+                return this.cacheLauncherMetadata();
+            case VERSION_MANIFEST:
+                return this.cacheVersionManifest(gameVersion);
+            case CLIENT_JAR:
+                return this.cacheVersionArtifact(gameVersion, ArtifactSide.CLIENT);
+            case SERVER_JAR:
+                return this.cacheVersionArtifact(gameVersion, ArtifactSide.SERVER);
+            case CLIENT_MAPPINGS:
+                return this.cacheVersionMappings(gameVersion, ArtifactSide.CLIENT);
+            case SERVER_MAPPINGS:
+                return this.cacheVersionMappings(gameVersion, ArtifactSide.SERVER);
+            default:
+                throw new IllegalArgumentException("Unknown game artifact: " + artifact);
+        }
+    }
+
+    private CompletableFuture<File> cacheGameArtifactAsync(final String gameVersion, final GameArtifact artifact) {
+        final File cacheDirectory = getCacheDirectory().get().getAsFile();
+        switch (artifact) {
+            case LAUNCHER_MANIFEST:
+                // Always loaded in the calling thread, every other artifact blocks on it.
+                return CompletableFuture.completedFuture(this.cacheLauncherMetadata());
+            case VERSION_MANIFEST:
+                return this.cacheAsync(ICacheFileSelector.forVersionJson(gameVersion), () -> downloadVersionManifestToCache(project, cacheDirectory, gameVersion));
+            case CLIENT_JAR:
+            case SERVER_JAR: {
+                final ArtifactSide side = artifact == GameArtifact.CLIENT_JAR ? ArtifactSide.CLIENT : ArtifactSide.SERVER;
+                return this.cacheAsync(ICacheFileSelector.forVersionJar(gameVersion, side.getName()), () -> downloadVersionArtifactToCache(project, cacheDirectory, gameVersion, side));
+            }
+            case CLIENT_MAPPINGS:
+            case SERVER_MAPPINGS: {
+                final ArtifactSide side = artifact == GameArtifact.CLIENT_MAPPINGS ? ArtifactSide.CLIENT : ArtifactSide.SERVER;
+                return this.cacheAsync(ICacheFileSelector.forVersionMappings(gameVersion, side.getName()), () -> downloadVersionMappingsToCache(project, cacheDirectory, gameVersion, side));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown game artifact: " + artifact);
+        }
+    }
+
+    private File cache(final ICacheFileSelector selector, final Callable<File> loader) {
+        return this.service.get().get(selector, loader);
+    }
+
+    private CompletableFuture<File> cacheAsync(final ICacheFileSelector selector, final Callable<File> loader) {
+        return this.service.get().getAsync(selector, loader);
+    }
+
     public final File cacheLauncherMetadata() {
-        return this.cache(UrlConstants.MOJANG_MANIFEST, ICacheFileSelector.launcherMetadata());
+        return this.cache(this.getLauncherManifestUrl().get(), ICacheFileSelector.launcherMetadata());
     }
 
     public final File cacheVersionManifest(String gameVersion) {
         final ICacheFileSelector cacheFileSelector = ICacheFileSelector.forVersionJson(gameVersion);
-        return this.cacheFiles.computeIfAbsent(cacheFileSelector, selector -> downloadVersionManifestToCache(project, getCacheDirectory().get().getAsFile(), gameVersion));
+        return this.cache(cacheFileSelector, () -> downloadVersionManifestToCache(project, getCacheDirectory().get().getAsFile(), gameVersion));
     }
 
     public final File cacheVersionArtifact(String gameVersion, ArtifactSide side) {
         final ICacheFileSelector cacheFileSelector = ICacheFileSelector.forVersionJar(gameVersion, side.getName());
-        return this.cacheFiles.computeIfAbsent(cacheFileSelector, selector -> downloadVersionArtifactToCache(project, getCacheDirectory().get().getAsFile(), gameVersion, side));
+        return this.cache(cacheFileSelector, () -> downloadVersionArtifactToCache(project, getCacheDirectory().get().getAsFile(), gameVersion, side));
     }
 
     public final File cacheVersionMappings(String gameVersion, ArtifactSide side) {
         final ICacheFileSelector cacheFileSelector = ICacheFileSelector.forVersionMappings(gameVersion, side.getName());
-        return this.cacheFiles.computeIfAbsent(cacheFileSelector, selector -> downloadVersionMappingsToCache(project, getCacheDirectory().get().getAsFile(), gameVersion, side));
+        return this.cache(cacheFileSelector, () -> downloadVersionMappingsToCache(project, getCacheDirectory().get().getAsFile(), gameVersion, side));
     }
 
     public final File cache(final URL url, final ICacheFileSelector selector) {
@@ -80,34 +241,39 @@ public abstract class MinecraftArtifactCacheExtension {
     }
 
     public final File cache(final String url, final ICacheFileSelector selector) {
-        return this.cacheFiles.computeIfAbsent(selector, cacheKey -> downloadJsonToCache(project, url, getCacheDirectory().getAsFile().get(), selector));
+        return this.cache(selector, () -> downloadJsonToCache(project, url, getCacheDirectory().getAsFile().get(), selector));
     }
 
     private File downloadVersionManifestToCache(Project project, final File cacheDirectory, final String minecraftVersion) {
-        final File manifestFile = new File(cacheDirectory, ICacheFileSelector.launcherMetadata().getCacheFileName());
-
-        Gson gson = new Gson();
-        String url = null;
-        try(final Reader reader = new FileReader(manifestFile)) {
-            JsonObject json = gson.fromJson(reader, JsonObject.class);
-
-            for (JsonElement e : json.getAsJsonArray("versions")) {
-                String v = e.getAsJsonObject().get("id").getAsString();
-                if (v.equals(minecraftVersion)) {
-                    url = e.getAsJsonObject().get("url").getAsString();
-                    break;
-                }
-            }
+        // The version is located through the launcher manifest, which may not have been requested by anyone yet.
+        final File manifestFile = this.cacheLauncherMetadata();
 
+        final LauncherManifestIndex manifest;
+        try {
+            manifest = LauncherManifestIndex.get(manifestFile);
         } catch (IOException e) {
             throw new RuntimeException("Could not read the launcher manifest", e);
         }
 
+        final String url = manifest.getUrl(minecraftVersion);
         if (url == null) {
             throw new IllegalStateException("Could not find the correct version json.");
         }
 
-        return downloadJsonToCache(project, url, cacheDirectory, ICacheFileSelector.forVersionJson(minecraftVersion));
+        // Newer manifests list the hash of the version json, which makes the json immutable and verifiable.
+        final File cacheFile = new File(cacheDirectory, ICacheFileSelector.forVersionJson(minecraftVersion).getCacheFileName());
+        final String hash = manifest.getSha1(minecraftVersion);
+        final FileDownloadingUtils.DownloadInfo info = new FileDownloadingUtils.DownloadInfo(url, hash, "json", minecraftVersion, null);
+        if (hash == null) {
+            downloadThrowing(info, cacheFile);
+            return cacheFile;
+        }
+
+        try {
+            return getStore(cacheDirectory).materialize(hash, cacheFile, object -> download(info, object));
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to download the version json of %s", minecraftVersion), e);
+        }
     }
 
     private File downloadVersionArtifactToCache(final Project project, final File cacheDirectory, final String minecraftVersion, final ArtifactSide side) {
@@ -144,13 +310,17 @@ public abstract class MinecraftArtifactCacheExtension {
             final FileDownloadingUtils.DownloadInfo info = new FileDownloadingUtils.DownloadInfo(url, hash, "jar", version, artifact);
 
             final File cacheFile = new File(cacheDirectory, cacheFileSelector.getCacheFileName());
-            FileDownloadingUtils.downloadTo(project, info, cacheFile);
+            getStore(cacheDirectory).materialize(hash, cacheFile, object -> download(info, object));
             return cacheFile;
         } catch (IOException e) {
             throw new RuntimeException(potentialError, e);
         }
     }
 
+    private static ContentAddressedStore getStore(final File cacheDirectory) {
+        return ContentAddressedStore.get(new File(cacheDirectory, "objects"));
+    }
+
     private File downloadJsonToCache(Project project, final String url, final File cacheDirectory, final ICacheFileSelector selector) {
         final File cacheFile = new File(cacheDirectory, selector.getCacheFileName());
         downloadJsonTo(project, url, cacheFile);
@@ -158,7 +328,25 @@ public abstract class MinecraftArtifactCacheExtension {
     }
 
     private void downloadJsonTo(Project project, String url, File file) {
-        downloadThrowing(project, new FileDownloadingUtils.DownloadInfo(url, null, "json", null, null), file);
+        downloadThrowing(new FileDownloadingUtils.DownloadInfo(url, null, "json", null, null), file);
+    }
+
+    private void downloadThrowing(final FileDownloadingUtils.DownloadInfo info, final File file) {
+        try {
+            download(info, file);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to download the file from: %s to: %s", info.getUrl(), file), e);
+        }
+    }
+
+    private void download(final FileDownloadingUtils.DownloadInfo info, final File file) throws IOException {
+        final MirrorBundle mirror = this.getMirror();
+        if (mirror != null) {
+            mirror.extract(new URL(info.getUrl()), file, info.getHash());
+            return;
+        }
+
+        FileDownloadingUtils.downloadTo(project, info, file);
     }
 }
 
@@ -1,6 +1,8 @@
 package buildSrc.extensions;
 
-import buildSrc.utils.Manifest;
+import buildSrc.services.GitPackingService;
+import buildSrc.services.HeavyWorkerService;
+import buildSrc.utils.LauncherManifestIndex;
 import buildSrc.utils.ReflectionUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -9,6 +11,7 @@ import net.minecraftforge.srgutils.MinecraftVersion;
 import org.gradle.api.Project;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 
 import javax.inject.Inject;
 import java.io.File;
@@ -16,7 +19,6 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -29,6 +31,8 @@ import static org.codehaus.groovy.runtime.DefaultGroovyMethods.collect;
 public abstract class MinecraftSourceExtension {
 
     private final Project project;
+    private final Provider<GitPackingService> packingService;
+    private final Provider<HeavyWorkerService> heavyWorkerService;
 
     @Inject
     public MinecraftSourceExtension(Project project) {
@@ -36,19 +40,102 @@ public abstract class MinecraftSourceExtension {
 
         this.getVersionsToGenerate().convention(Collections.emptyList());
         this.getIsIncremental().convention(true);
+        this.getIsPipelined().convention(project.getProviders().gradleProperty("minecraft.pipelined").map(Boolean::parseBoolean).orElse(false));
+        this.getPipelineLookahead().convention(project.getProviders().gradleProperty("minecraft.pipelineLookahead").map(Integer::parseInt).orElse(2));
+        this.getPrefetchCount().convention(project.getProviders().gradleProperty("minecraft.prefetch").map(Integer::parseInt).orElse(2));
+        this.getIsDirectToGit().convention(project.getProviders().gradleProperty("minecraft.directToGit").map(Boolean::parseBoolean).orElse(false));
+        this.getCheckoutFinalVersion().convention(project.getProviders().gradleProperty("minecraft.checkoutFinal").map(Boolean::parseBoolean).orElse(true));
+        this.getIsJoined().convention(project.getProviders().gradleProperty("minecraft.joined").map(Boolean::parseBoolean).orElse(false));
+        this.getPackInterval().convention(project.getProviders().gradleProperty("minecraft.packInterval").map(Integer::parseInt).orElse(25));
+        this.getHeavyWorkers().convention(project.getProviders().gradleProperty("minecraft.heavyWorkers").map(Integer::parseInt).orElse(project.provider(HeavyWorkerService::getDefaultMaxParallelUsages)));
+
+        this.packingService = project.getGradle().getSharedServices().registerIfAbsent("minecraftGitPacking", GitPackingService.class, spec -> {
+            spec.getParameters().getPackInterval().set(this.getPackInterval());
+        });
+        this.heavyWorkerService = project.getGradle().getSharedServices().registerIfAbsent("minecraftHeavyWorker", HeavyWorkerService.class, spec -> {
+            spec.getMaxParallelUsages().set(this.getHeavyWorkers().map(workers -> Math.max(1, workers)));
+        });
     }
 
     public abstract ListProperty<String> getVersionsToGenerate();
 
     public abstract Property<Boolean> getIsIncremental();
 
+    /**
+     * When enabled the download, rename and decompile stages of later versions run ahead of the
+     * version that is currently being committed, each in its own staging directory.
+     * Only the stages that touch the shared game directory stay serialized, and no more than {@link #getHeavyWorkers()}
+     * rename and decompile workers run at once.
+     */
+    public abstract Property<Boolean> getIsPipelined();
+
+    /**
+     * The amount of versions which are allowed to be prepared ahead of the version that is next in line to be committed.
+     * Only used when {@link #getIsPipelined()} is enabled. A lookahead of 0 is equivalent to the serial execution.
+     */
+    public abstract Property<Integer> getPipelineLookahead();
+
+    /**
+     * The amount of following versions whose artifacts are downloaded in the background, once the artifacts of a version are available.
+     */
+    public abstract Property<Integer> getPrefetchCount();
+
+    /**
+     * When enabled the decompiled jar of each version is committed straight into the git repository of the game directory,
+     * without extracting it into the working tree first.
+     */
+    public abstract Property<Boolean> getIsDirectToGit();
+
+    /**
+     * Whether the working tree is reset to the last version, once all versions were committed straight into git.
+     * Only used when {@link #getIsDirectToGit()} is enabled.
+     */
+    public abstract Property<Boolean> getCheckoutFinalVersion();
+
+    /**
+     * When enabled the server jar is unbundled, renamed and decompiled next to the client jar. Classes which are identical
+     * on both sides are decompiled once and end up in the main source set, all others in the client or server source set.
+     */
+    public abstract Property<Boolean> getIsJoined();
+
+    /**
+     * The amount of commits after which their objects are packed in the background, 0 leaves all objects loose.
+     */
+    public abstract Property<Integer> getPackInterval();
+
+    /**
+     * The maximal amount of rename and decompile workers which run at the same time. Defaults to the amount of worker heaps
+     * which fit into the physical memory next to the Gradle daemon.
+     */
+    public abstract Property<Integer> getHeavyWorkers();
+
+    /**
+     * The build service which packs the game repository. Tasks which commit should declare it through {@code usesService}.
+     */
+    public final Provider<GitPackingService> getPackingService() {
+        return this.packingService;
+    }
+
+    /**
+     * The build service which limits the amount of concurrent rename and decompile workers. Tasks which start one of them should declare it through {@code usesService}.
+     */
+    public final Provider<HeavyWorkerService> getHeavyWorkerService() {
+        return this.heavyWorkerService;
+    }
+
     public void all(final Function<List<MinecraftVersion>, List<MinecraftVersion>> filter) throws FileNotFoundException {
         final MinecraftArtifactCacheExtension cacheExtension = project.getExtensions().getByType(MinecraftArtifactCacheExtension.class);
         final File launcherManifest = cacheExtension.cacheLauncherMetadata();
 
-        final Gson gson = new Gson();
-        final Manifest manifest = gson.fromJson(new FileReader(launcherManifest), Manifest.class);
-        final List<MinecraftVersion> versions = Arrays.stream(manifest.getVersions()).map(v -> MinecraftVersion.from(v.getId())).collect(Collectors.toList());
+        final LauncherManifestIndex manifest;
+        try {
+            manifest = LauncherManifestIndex.get(launcherManifest);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the launcher manifest", e);
+        }
+        final List<MinecraftVersion> versions = manifest.getIds().stream().map(MinecraftVersion::from).collect(Collectors.toList());
         Collections.reverse(versions);
 
         final List<MinecraftVersion> toGenerate = filter.apply(versions);
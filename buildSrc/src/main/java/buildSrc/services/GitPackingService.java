@@ -0,0 +1,111 @@
+package buildSrc.services;
+
+import buildSrc.utils.git.IncrementalPacker;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Keeps the object stores of the generated repositories packed, off the critical path of the build.
+ *
+ * <p>Commit tasks report every commit. Once a repository received the configured amount of commits, the objects of
+ * those commits are packed by {@link IncrementalPacker} on a background thread, while the build moves on. Requests for
+ * a repository which is already being packed are folded into the running one. The commits which are left over are
+ * packed when the build finishes.</p>
+ */
+public abstract class GitPackingService implements BuildService<GitPackingService.Parameters>, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GitPackingService.class);
+
+    public interface Parameters extends BuildServiceParameters {
+        /**
+         * The amount of commits after which the new objects of a repository are packed, 0 disables packing.
+         */
+        Property<Integer> getPackInterval();
+    }
+
+    private final Map<File, Integer> unpacked = new ConcurrentHashMap<>();
+    private final Map<File, Future<?>> running = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    /**
+     * Records a commit to the given repository, and packs it in the background once enough commits came together.
+     */
+    public void committed(final File gitDirectory) {
+        final int interval = getParameters().getPackInterval().getOrElse(0);
+        if (interval <= 0)
+            return;
+
+        final File key = gitDirectory.getAbsoluteFile();
+        if (this.unpacked.merge(key, 1, Integer::sum) >= interval) {
+            this.schedule(key);
+        }
+    }
+
+    private synchronized void schedule(final File gitDirectory) {
+        final Future<?> current = this.running.get(gitDirectory);
+        if (current != null && !current.isDone())
+            return;
+
+        this.submit(gitDirectory);
+    }
+
+    private synchronized void submit(final File gitDirectory) {
+        this.unpacked.put(gitDirectory, 0);
+        this.running.put(gitDirectory, this.getExecutor().submit(() -> {
+            try {
+                IncrementalPacker.pack(gitDirectory);
+            } catch (IOException | RuntimeException e) {
+                // The loose objects stay valid, the next run picks them up again.
+                LOGGER.warn("Failed to pack the objects of " + gitDirectory, e);
+            }
+        }));
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "minecraft-git-packing");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return this.executor;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (final Map.Entry<File, Integer> entry : this.unpacked.entrySet()) {
+                if (entry.getValue() > 0) {
+                    // Queued behind a pack which may still be running for the same repository.
+                    this.submit(entry.getKey());
+                }
+            }
+
+            if (this.executor != null) {
+                this.executor.shutdown();
+                // Finish the packs, so the repositories are left behind without a pile of loose objects.
+                if (!this.executor.awaitTermination(1, TimeUnit.HOURS)) {
+                    LOGGER.warn("Gave up waiting for the git packing to finish");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+            this.unpacked.clear();
+            this.running.clear();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package buildSrc.services;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Limits how many of the memory hungry rename and decompile workers run at the same time.
+ *
+ * <p>The service holds no state, it only exists for its {@code maxParallelUsages}. Every task which starts one of
+ * these workers declares it through {@code usesService}, so no more workers run at once than their heaps fit into
+ * the physical memory. Downloads and extraction of other versions still overlap with them.</p>
+ */
+public abstract class HeavyWorkerService implements BuildService<BuildServiceParameters.None> {
+
+    /**
+     * @return The maximal heap of a single worker in megabytes, a quarter of the physical memory but at least 4 GB.
+     */
+    public static long getWorkerHeapMegabytes() {
+        return Math.max(getPhysicalMemoryMegabytes() / 4, 4096);
+    }
+
+    /**
+     * @return The amount of workers whose heaps fit into the physical memory next to the heap of the Gradle daemon, at least 1.
+     */
+    public static int getDefaultMaxParallelUsages() {
+        final long available = getPhysicalMemoryMegabytes() - Runtime.getRuntime().maxMemory() / (1024L * 1024L);
+        return (int) Math.max(1, available / getWorkerHeapMegabytes());
+    }
+
+    private static long getPhysicalMemoryMegabytes() {
+        return ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / (1024L * 1024L);
+    }
+}
@@ -0,0 +1,123 @@
+package buildSrc.services;
+
+import buildSrc.utils.ICacheFileSelector;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The artifact cache of a build, shared by all projects and tasks of the build.
+ *
+ * <p>Every cache file is represented by a future. The first request for a file starts its download, every concurrent
+ * or later request waits on the same future. No lock is held while a download runs, so requests for unrelated files
+ * never wait on each other. A failed download is forgotten, so a later request tries again.</p>
+ */
+public abstract class MinecraftArtifactCacheService implements BuildService<MinecraftArtifactCacheService.Parameters>, AutoCloseable {
+
+    public interface Parameters extends BuildServiceParameters {
+        /**
+         * The maximal amount of artifacts which are downloaded at the same time, including prefetches.
+         */
+        Property<Integer> getMaxConcurrentDownloads();
+    }
+
+    private final ConcurrentMap<ICacheFileSelector, CompletableFuture<File>> entries = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor downloadExecutor;
+
+    /**
+     * Returns the cache file of the selector, loading it in the calling thread if nobody requested it yet.
+     */
+    public File get(final ICacheFileSelector selector, final Callable<File> loader) {
+        final CompletableFuture<File> created = new CompletableFuture<>();
+        final CompletableFuture<File> existing = this.entries.putIfAbsent(selector, created);
+        if (existing != null)
+            return join(existing);
+
+        this.load(selector, created, loader);
+        return join(created);
+    }
+
+    /**
+     * Returns the future cache file of the selector, loading it on the download pool if nobody requested it yet.
+     */
+    public CompletableFuture<File> getAsync(final ICacheFileSelector selector, final Callable<File> loader) {
+        final CompletableFuture<File> created = new CompletableFuture<>();
+        final CompletableFuture<File> existing = this.entries.putIfAbsent(selector, created);
+        if (existing != null)
+            return existing;
+
+        try {
+            this.getDownloadExecutor().execute(() -> this.load(selector, created, loader));
+        } catch (RejectedExecutionException e) {
+            this.entries.remove(selector, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * @return The cache files which have been loaded so far.
+     */
+    public Map<ICacheFileSelector, File> getLoadedFiles() {
+        final Map<ICacheFileSelector, File> loaded = new HashMap<>();
+        this.entries.forEach((selector, future) -> {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                loaded.put(selector, future.join());
+            }
+        });
+        return Collections.unmodifiableMap(loaded);
+    }
+
+    private void load(final ICacheFileSelector selector, final CompletableFuture<File> future, final Callable<File> loader) {
+        try {
+            future.complete(loader.call());
+        } catch (Throwable e) {
+            this.entries.remove(selector, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static File join(final CompletableFuture<File> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private synchronized ExecutorService getDownloadExecutor() {
+        if (this.downloadExecutor == null) {
+            final int threads = Math.max(1, getParameters().getMaxConcurrentDownloads().getOrElse(4));
+            final AtomicInteger counter = new AtomicInteger();
+            this.downloadExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                final Thread thread = new Thread(runnable, "minecraft-download-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Idle threads die off, so a daemon which is kept alive between builds does not hold on to them.
+            this.downloadExecutor.allowCoreThreadTimeOut(true);
+        }
+        return this.downloadExecutor;
+    }
+
+    @Override
+    public synchronized void close() {
+        // Outstanding prefetches are of no use once the build is over.
+        if (this.downloadExecutor != null) {
+            this.downloadExecutor.shutdownNow();
+            this.downloadExecutor = null;
+        }
+        this.entries.clear();
+    }
+}
@@ -0,0 +1,50 @@
+package buildSrc.tasks;
+
+import buildSrc.utils.git.PendingChanges;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Resets the index and the working tree of the project directory to HEAD, after its history was committed by {@link CommitDecompiledJarTask}.
+ */
+public abstract class CheckoutCommitTask extends DefaultTask {
+
+    @Internal
+    public abstract DirectoryProperty getProjectDirectory();
+
+    /**
+     * The manifest of the last extraction into the working tree, which no longer matches it after the checkout.
+     */
+    @Internal
+    public abstract RegularFileProperty getExtractionManifest();
+
+    @Internal
+    public abstract RegularFileProperty getPendingChanges();
+
+    @TaskAction
+    public void doCheckout() throws IOException, GitAPIException {
+        final Repository repository = new FileRepositoryBuilder()
+                .setGitDir(getProjectDirectory().get().file(".git").getAsFile())
+                .build();
+        try {
+            new Git(repository).reset().setMode(ResetCommand.ResetType.HARD).call();
+        } finally {
+            repository.close();
+        }
+
+        // The working tree, the index and HEAD match again, but the extraction has to start over.
+        Files.deleteIfExists(getExtractionManifest().get().getAsFile().toPath());
+        new PendingChanges(getPendingChanges().get().getAsFile()).clear();
+    }
+}
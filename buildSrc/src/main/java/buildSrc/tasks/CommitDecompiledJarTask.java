@@ -0,0 +1,194 @@
+package buildSrc.tasks;
+
+import buildSrc.services.GitPackingService;
+import buildSrc.utils.extract.SourceRouter;
+import buildSrc.utils.git.BlobCache;
+import buildSrc.utils.git.BlobKey;
+import buildSrc.utils.git.BlobWriter;
+import buildSrc.utils.git.GitCommits;
+import buildSrc.utils.git.PendingChanges;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+
+/**
+ * Commits the decompiled jar of a version straight into the git repository of the project directory, without writing
+ * the sources to the working tree first.
+ *
+ * <p>The tree of the commit is built in memory from the entries of the jar, routed into the source and resource roots
+ * like {@link ExtractSourcesTask} does, plus the build script {@link EnvironmentSetupTask} would generate. The index and
+ * the working tree of the repository are left untouched, see {@link CheckoutCommitTask} to bring them up to date.</p>
+ */
+public abstract class CommitDecompiledJarTask extends DefaultTask {
+
+    public CommitDecompiledJarTask() {
+        getResourcePatterns().convention(SourceRouter.DEFAULT_RESOURCE_PATTERNS);
+        getSourceDirectory().convention("src/main/java");
+        getResourceDirectory().convention("src/main/resources");
+        getSideSourceDirectories().convention(Collections.emptyMap());
+        getSideResourceDirectories().convention(Collections.emptyMap());
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getDecompiledJar();
+
+    /**
+     * The include patterns of the entries which are committed into the resource directory, instead of the source directory.
+     */
+    @Input
+    public abstract ListProperty<String> getResourcePatterns();
+
+    /**
+     * The path of the source root, relative to the project directory.
+     */
+    @Input
+    public abstract Property<String> getSourceDirectory();
+
+    /**
+     * The path of the resource root, relative to the project directory.
+     */
+    @Input
+    public abstract Property<String> getResourceDirectory();
+
+    /**
+     * The paths of the source roots of the side specific source sets by side, relative to the project directory.
+     * Entries below {@code <side>/} in the jar are committed into the roots of that side, instead of the main roots.
+     */
+    @Input
+    public abstract MapProperty<String, String> getSideSourceDirectories();
+
+    /**
+     * The paths of the resource roots of the side specific source sets, with the same sides as {@link #getSideSourceDirectories()}.
+     */
+    @Input
+    public abstract MapProperty<String, String> getSideResourceDirectories();
+
+    /**
+     * @return The descriptors of the libraries of the version, which become the dependencies of the generated project.
+     */
+    @Input
+    public abstract ListProperty<String> getLibraries();
+
+    @Input
+    public abstract Property<String> getCommitMessage();
+
+    @Internal
+    public abstract DirectoryProperty getProjectDirectory();
+
+    /**
+     * The changes which are waiting for a commit from the working tree, see {@link PendingChanges}. The index no longer
+     * matches HEAD after a direct commit, so they are marked as incomplete.
+     */
+    @Internal
+    public abstract RegularFileProperty getPendingChanges();
+
+    /**
+     * The service which packs the objects of the repository in the background, once enough commits came together.
+     */
+    @Internal
+    public abstract Property<GitPackingService> getPackingService();
+
+    @TaskAction
+    public void doCommit() throws IOException {
+        final File gitDirectory = getProjectDirectory().get().file(".git").getAsFile();
+        final Repository repository = new FileRepositoryBuilder()
+                .setGitDir(gitDirectory)
+                .build();
+        if (!gitDirectory.exists()) {
+            repository.create();
+        }
+
+        final SourceRouter router = new SourceRouter(getResourcePatterns().get());
+        final String sourcePrefix = getSourceDirectory().get() + "/";
+        final String resourcePrefix = getResourceDirectory().get() + "/";
+        final Map<String, String> sideSourcePrefixes = new HashMap<>();
+        final Map<String, String> sideResourcePrefixes = new HashMap<>();
+        getSideSourceDirectories().get().forEach((side, directory) -> sideSourcePrefixes.put(side + "/", directory + "/"));
+        getSideResourceDirectories().get().forEach((side, directory) -> sideResourcePrefixes.put(side + "/", directory + "/"));
+        if (!sideSourcePrefixes.keySet().equals(sideResourcePrefixes.keySet()))
+            throw new IllegalStateException("The sides of the source directories " + getSideSourceDirectories().get().keySet() + " do not match the sides of the resource directories " + getSideResourceDirectories().get().keySet());
+
+        final DirCache snapshot = DirCache.newInCore();
+        final DirCacheBuilder builder = snapshot.builder();
+        final ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            final BlobCache blobCache = BlobCache.forRepository(gitDirectory);
+            final BlobWriter blobs = new BlobWriter(repository, blobCache);
+            final List<DirCacheEntry> staged;
+            try (ZipFile zip = new ZipFile(getDecompiledJar().get().getAsFile())) {
+                staged = Collections.list(zip.entries()).parallelStream()
+                        .filter(entry -> !entry.isDirectory())
+                        .map(entry -> {
+                            final String name = entry.getName();
+                            final int separator = name.indexOf('/');
+                            final String side = separator < 0 ? null : name.substring(0, separator + 1);
+                            final String path;
+                            if (side != null && sideSourcePrefixes.containsKey(side)) {
+                                final String sided = name.substring(side.length());
+                                path = (router.isResource(sided) ? sideResourcePrefixes.get(side) : sideSourcePrefixes.get(side)) + sided;
+                            } else {
+                                path = (router.isResource(name) ? resourcePrefix : sourcePrefix) + name;
+                            }
+                            try {
+                                return entry(path, blobs.write(path, new BlobKey(entry.getSize(), entry.getCrc()), entry.getSize(), () -> zip.getInputStream(entry)));
+                            } catch (final IOException e) {
+                                throw new UncheckedIOException("Failed to commit " + entry.getName(), e);
+                            }
+                        })
+                        .collect(Collectors.toList());
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+            staged.forEach(builder::add);
+
+            final byte[] buildScript = EnvironmentSetupTask.renderBuildScript(getLibraries().get(), new ArrayList<>(new TreeSet<>(getSideSourceDirectories().get().keySet()))).getBytes(Charset.defaultCharset());
+            builder.add(entry("build.gradle", inserter.insert(Constants.OBJ_BLOB, buildScript)));
+            builder.finish();
+
+            final ObjectId commit = GitCommits.commitSnapshot(repository, inserter, snapshot, getCommitMessage().get());
+            blobCache.save();
+            getLogger().info("Committed {} entries of {} as {}: {} blobs written, {} reused", staged.size(), getDecompiledJar().get().getAsFile(), commit.name(), blobs.getWritten(), blobs.getReused());
+        } finally {
+            inserter.release();
+            repository.close();
+        }
+
+        if (getPendingChanges().isPresent()) {
+            new PendingChanges(getPendingChanges().get().getAsFile()).markIncomplete();
+        }
+
+        if (getPackingService().isPresent()) {
+            getPackingService().get().committed(gitDirectory);
+        }
+    }
+
+    private static DirCacheEntry entry(final String path, final ObjectId blob) {
+        final DirCacheEntry entry = new DirCacheEntry(path);
+        entry.setFileMode(FileMode.REGULAR_FILE);
+        entry.setObjectId(blob);
+        return entry;
+    }
+}
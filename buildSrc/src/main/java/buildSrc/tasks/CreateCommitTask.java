@@ -1,16 +1,26 @@
 package buildSrc.tasks;
 
+import buildSrc.services.GitPackingService;
+import buildSrc.utils.git.BlobCache;
+import buildSrc.utils.git.BlobKey;
+import buildSrc.utils.git.GitCommits;
+import buildSrc.utils.git.PendingChanges;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public abstract class CreateCommitTask extends DefaultTask {
 
@@ -21,6 +31,19 @@ public abstract class CreateCommitTask extends DefaultTask {
     @PathSensitive(PathSensitivity.RELATIVE)
     public abstract DirectoryProperty getProjectDirectory();
 
+    /**
+     * The files which were touched since the last commit, see {@link PendingChanges}. When they are known only those
+     * paths are staged, otherwise the whole working tree is scanned.
+     */
+    @Internal
+    public abstract RegularFileProperty getPendingChanges();
+
+    /**
+     * The service which packs the objects of the repository in the background, once enough commits came together.
+     */
+    @Internal
+    public abstract Property<GitPackingService> getPackingService();
+
     @TaskAction
     public void doCreateCommit() throws IOException, GitAPIException {
         final File gitDirectory = getProjectDirectory().get().file(".git").getAsFile();
@@ -31,9 +54,42 @@ public abstract class CreateCommitTask extends DefaultTask {
             repository.create();
         }
 
-        final Git git = new Git(repository);
-        git.add().addFilepattern(".").call();
-        git.add().setUpdate(true).addFilepattern(".").call();
-        git.commit().setAll(true).setMessage(getCommitMessage().get()).call();
+        final PendingChanges pendingChanges = getPendingChanges().isPresent() ? new PendingChanges(getPendingChanges().get().getAsFile()) : null;
+        final Map<String, BlobKey> paths = pendingChanges == null ? null : relativePaths(repository, pendingChanges.read());
+        if (paths != null && repository.resolve(Constants.HEAD) != null && new File(gitDirectory, "index").exists()) {
+            final BlobCache blobCache = BlobCache.forRepository(gitDirectory);
+            GitCommits.commitPaths(repository, paths, getCommitMessage().get(), blobCache);
+            blobCache.save();
+        } else {
+            final Git git = new Git(repository);
+            git.add().addFilepattern(".").call();
+            git.add().setUpdate(true).addFilepattern(".").call();
+            git.commit().setAll(true).setMessage(getCommitMessage().get()).call();
+        }
+
+        if (pendingChanges != null) {
+            pendingChanges.clear();
+        }
+
+        if (getPackingService().isPresent()) {
+            getPackingService().get().committed(gitDirectory);
+        }
+    }
+
+    /**
+     * @return The given files relative to the working tree, or null if they are unknown or some lie outside of it.
+     */
+    private static Map<String, BlobKey> relativePaths(final Repository repository, final Map<Path, BlobKey> files) {
+        if (files == null)
+            return null;
+
+        final Path workTree = repository.getWorkTree().toPath().toAbsolutePath().normalize();
+        final Map<String, BlobKey> paths = new LinkedHashMap<>();
+        for (final Map.Entry<Path, BlobKey> file : files.entrySet()) {
+            if (!file.getKey().startsWith(workTree) || file.getKey().equals(workTree))
+                return null;
+            paths.put(workTree.relativize(file.getKey()).toString().replace(File.separatorChar, '/'), file.getValue());
+        }
+        return paths;
     }
 }
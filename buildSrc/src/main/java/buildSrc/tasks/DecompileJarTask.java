@@ -1,10 +1,12 @@
 package buildSrc.tasks;
 
+import buildSrc.services.HeavyWorkerService;
 import buildSrc.workers.JarDecompileWorker;
-import com.sun.management.OperatingSystemMXBean;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.MapProperty;
@@ -14,14 +16,25 @@ import org.gradle.jvm.toolchain.JavaLauncher;
 import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
-import java.lang.management.ManagementFactory;
-import java.util.Collections;
+import java.util.Map;
 
+@CacheableTask
 public abstract class DecompileJarTask extends DefaultTask {
 
     private static final String FORGE_FLOWER_VERSION="1.5.605.9";
+    private static final String WORKER_CONFIGURATION = "decompilerWorker";
 
-    @Input
+    public DecompileJarTask() {
+        super();
+
+        getDecompilerOptions().convention(getExtraFernFlowerArgs().map(extraArgs -> {
+            final Map<String, String> options = JarDecompileWorker.getDefaultOptions();
+            options.putAll(extraArgs); // user-specified options override the defaults
+            return options;
+        }));
+    }
+
+    @Nested
     @Optional
     public abstract Property<JavaLauncher> getJavaLauncher();
 
@@ -29,30 +42,57 @@ public abstract class DecompileJarTask extends DefaultTask {
     protected abstract WorkerExecutor getWorkerExecutor();
 
     @InputFile
-    @PathSensitive(PathSensitivity.RELATIVE)
+    @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getInputJar();
 
-    @InputFiles
-    @PathSensitive(PathSensitivity.RELATIVE)
+    @Classpath
     public abstract ConfigurableFileCollection getDecompileClasspath();
 
-    @Nested
-    @Optional
+    @Internal
     public abstract MapProperty<String, String> getExtraFernFlowerArgs();
 
+    /**
+     * The effective decompiler options, the defaults merged with {@link #getExtraFernFlowerArgs()}.
+     */
+    @Input
+    public abstract MapProperty<String, String> getDecompilerOptions();
+
+    @Input
+    public String getDecompilerVersion() {
+        return FORGE_FLOWER_VERSION;
+    }
+
+    /**
+     * The directory which holds previously decompiled classes, keyed by their bytecode.
+     * Classes found in it are not decompiled again. Leave unset to always decompile the entire jar.
+     */
+    @Internal
+    public abstract DirectoryProperty getDecompilationMemoDirectory();
+
+    /**
+     * The directory which holds the class header indices of the libraries of the decompile classpath, keyed by their hash.
+     * Leave unset to hand the libraries to the decompiler as they are.
+     */
+    @Internal
+    public abstract DirectoryProperty getLibraryCacheDirectory();
+
     @OutputFile
     public abstract RegularFileProperty getOutputJar();
 
+    /**
+     * The mapping from the line numbers of the input jar to the lines of the decompiled sources.
+     * See {@link buildSrc.utils.decompile.LineMappings} for its layout.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getLineMappingFile();
+
     @TaskAction
     public void doDecompile() throws Exception {
         // Execute in an isolated JVM that can access our customized classpath
         // This actually performs the decompile
-        final long totalSystemMemoryBytes =
-                ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / (1024L * 1024L);
-
         this.getWorkerExecutor().processIsolation(spec -> {
             spec.forkOptions(options -> {
-                options.setMaxHeapSize(Math.max(totalSystemMemoryBytes / 4, 4096) + "M");
+                options.setMaxHeapSize(HeavyWorkerService.getWorkerHeapMegabytes() + "M");
                 // Enable toolchain support
                 if (this.getJavaLauncher().isPresent()) {
                     final JavaLauncher launcher = this.getJavaLauncher().get();
@@ -62,16 +102,35 @@ public abstract class DecompileJarTask extends DefaultTask {
             spec.getClasspath().from(this.getWorkerClasspath());
         }).submit(JarDecompileWorker.class, parameters -> {
             parameters.getDecompileClasspath().from(getDecompileClasspath());
-            parameters.getExtraArgs().set(this.getExtraFernFlowerArgs().orElse(Collections.emptyMap()));
+            parameters.getOptions().set(getDecompilerOptions());
+            parameters.getDecompilerVersion().set(getDecompilerVersion());
+            parameters.getMemoDirectory().set(getDecompilationMemoDirectory());
+            parameters.getLibraryCacheDirectory().set(getLibraryCacheDirectory());
             parameters.getInputJar().set(getInputJar()); // Use the temporary jar
             parameters.getOutputJar().set(getOutputJar());
+            parameters.getLineMappingFile().set(getLineMappingFile());
         });
-        this.getWorkerExecutor().await();
+        // Do not await the worker, this allows Gradle to run independent tasks of later versions while we are busy.
     }
 
     private FileCollection getWorkerClasspath() {
-        final Configuration forgeFlower = this.getProject().getConfigurations().detachedConfiguration();
-        forgeFlower.defaultDependencies(deps -> deps.add(getProject().getDependencies().create("net.minecraftforge:forgeflower:" + FORGE_FLOWER_VERSION)));
-        return forgeFlower.getIncoming().getFiles();
+        return getOrCreateWorkerConfiguration(this.getProject()).getIncoming().getFiles();
+    }
+
+    /**
+     * All decompile tasks share one worker classpath, which is resolved once per build.
+     * Together with identical fork options this allows Gradle to hand every version to the same, already warmed up, worker process.
+     */
+    public static Configuration getOrCreateWorkerConfiguration(final Project project) {
+        final Configuration existing = project.getConfigurations().findByName(WORKER_CONFIGURATION);
+        if (existing != null) {
+            return existing;
+        }
+
+        return project.getConfigurations().create(WORKER_CONFIGURATION, forgeFlower -> {
+            forgeFlower.setVisible(false);
+            forgeFlower.setCanBeConsumed(false);
+            forgeFlower.defaultDependencies(deps -> deps.add(project.getDependencies().create("net.minecraftforge:forgeflower:" + FORGE_FLOWER_VERSION)));
+        });
     }
 }
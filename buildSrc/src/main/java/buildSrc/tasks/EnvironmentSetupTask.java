@@ -1,14 +1,17 @@
 package buildSrc.tasks;
 
-import buildSrc.extensions.MinecraftArtifactCacheExtension;
-import buildSrc.utils.VersionJson;
+import buildSrc.utils.git.PendingChanges;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -21,32 +24,81 @@ public abstract class EnvironmentSetupTask extends DefaultTask {
     @PathSensitive(PathSensitivity.RELATIVE)
     public abstract DirectoryProperty getProjectDirectory();
 
+    /**
+     * @return The descriptors of the libraries of the version, which become the dependencies of the generated project.
+     */
+    @Input
+    public abstract ListProperty<String> getLibraries();
+
+    /**
+     * The list the generated files are appended to, see {@link PendingChanges}.
+     */
+    @Internal
+    public abstract RegularFileProperty getPendingChanges();
+
+    /**
+     * The sides which get a source set of their own, which combines the main sources with the sources of the side.
+     */
+    @Input
+    @Optional
+    public abstract ListProperty<String> getSides();
+
     @TaskAction
     public void doSetup() throws IOException {
-        final MinecraftArtifactCacheExtension extension = getProject().getExtensions().getByType(MinecraftArtifactCacheExtension.class);
+        final String templateWithDependencies = renderBuildScript(getLibraries().get(), getSides().getOrElse(Collections.emptyList()));
+
+        final File outputFile = getProjectDirectory().get().file("build.gradle").getAsFile();
+        try (FileWriter writer = new FileWriter(outputFile)) {
+            writer.write(templateWithDependencies);
+        }
+
+        final File settingsFile = getProjectDirectory().get().file("build.gradle").getAsFile();
+        if (!settingsFile.exists())
+            settingsFile.createNewFile();
+
+        if (getPendingChanges().isPresent()) {
+            new PendingChanges(getPendingChanges().get().getAsFile()).append(Arrays.asList(outputFile.toPath(), settingsFile.toPath()));
+        }
+    }
 
-        try (InputStream in = getClass().getResourceAsStream("/build.gradle.template");
+    /**
+     * @param libraries The descriptors of the libraries which become the dependencies of the project.
+     * @param sides The sides which get a source set of their own, below {@code src/<side>}.
+     * @return The build script of the generated project.
+     */
+    public static String renderBuildScript(final List<String> libraries, final List<String> sides) throws IOException {
+        try (InputStream in = EnvironmentSetupTask.class.getResourceAsStream("/build.gradle.template");
              BufferedReader reader = new BufferedReader(new InputStreamReader(Objects.requireNonNull(in)))) {
 
             final String template = reader.lines().collect(Collectors.joining("\n"));
-            final File versionMetadata = extension.cacheVersionManifest(getMinecraftVersion().get());
-            final VersionJson versionJson = VersionJson.get(versionMetadata);
 
-            final String dependenciesString = Arrays.stream(versionJson.getLibraries())
-                    .map(library -> library.getArtifact().toString())
+            final String dependenciesString = libraries.stream()
                     .map(artifactId -> "    implementation \"" + artifactId + "\"")
                     .collect(Collectors.joining("\n"));
 
-            final String templateWithDependencies = template.replace("%%dependencies%%", dependenciesString);
-
-            final File outputFile = getProjectDirectory().get().file("build.gradle").getAsFile();
-            try (FileWriter writer = new FileWriter(outputFile)) {
-                writer.write(templateWithDependencies);
+            final StringBuilder sourceSets = new StringBuilder();
+            if (!sides.isEmpty()) {
+                // The shared sources stay in the main source set, every side only owns its own directories and
+                // compiles against the main output. As such no directory is a content root of more than one source set.
+                sourceSets.append("\nsourceSets {\n");
+                for (final String side : sides) {
+                    sourceSets.append("    ").append(side).append(" {\n")
+                            .append("        java.srcDirs = ['src/").append(side).append("/java']\n")
+                            .append("        resources.srcDirs = ['src/").append(side).append("/resources']\n")
+                            .append("        compileClasspath += main.output\n")
+                            .append("        runtimeClasspath += main.output\n")
+                            .append("    }\n");
+                }
+                sourceSets.append("}\n\nconfigurations {\n");
+                for (final String side : sides) {
+                    sourceSets.append("    ").append(side).append("Implementation.extendsFrom implementation\n")
+                            .append("    ").append(side).append("RuntimeOnly.extendsFrom runtimeOnly\n");
+                }
+                sourceSets.append("}\n");
             }
 
-            final File settingsFile = getProjectDirectory().get().file("build.gradle").getAsFile();
-            if (!settingsFile.exists())
-                settingsFile.createNewFile();
+            // Without sides the placeholder goes away together with its line, so the script stays as it always was.
+            return template.replace("%%dependencies%%", dependenciesString).replace(sides.isEmpty() ? "\n%%sourceSets%%" : "%%sourceSets%%", sourceSets.toString());
         }
     }
 }
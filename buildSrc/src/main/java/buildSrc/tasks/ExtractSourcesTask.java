@@ -1,34 +1,137 @@
 package buildSrc.tasks;
 
-import buildSrc.utils.Utils;
-import org.apache.commons.io.FileUtils;
+import buildSrc.utils.extract.IncrementalZipExtractor;
+import buildSrc.utils.extract.SourceRouter;
+import buildSrc.utils.git.BlobKey;
+import buildSrc.utils.git.PendingChanges;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.tasks.*;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
 
 public abstract class ExtractSourcesTask extends DefaultTask {
 
+    public ExtractSourcesTask() {
+        getResourcePatterns().convention(SourceRouter.DEFAULT_RESOURCE_PATTERNS);
+        getSideSourceDirectories().convention(Collections.emptyMap());
+        getSideResourceDirectories().convention(Collections.emptyMap());
+    }
+
     @InputFile
-    @PathSensitive(PathSensitivity.RELATIVE)
+    @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getDecompiledJar();
 
+    /**
+     * The include patterns of the entries which are extracted into the resource directory, instead of the source directory.
+     */
+    @Input
+    public abstract ListProperty<String> getResourcePatterns();
+
     @OutputDirectory
     public abstract DirectoryProperty getSourceFilesDirectory();
     @OutputDirectory
     public abstract DirectoryProperty getResourceFilesDirectory();
 
+    /**
+     * The source directories of the side specific source sets, by side. Entries below {@code <side>/} in the jar are
+     * extracted into the directories of that side, instead of the main directories.
+     */
+    @OutputDirectories
+    public abstract MapProperty<String, File> getSideSourceDirectories();
+    /**
+     * The resource directories of the side specific source sets, with the same sides as {@link #getSideSourceDirectories()}.
+     */
+    @OutputDirectories
+    public abstract MapProperty<String, File> getSideResourceDirectories();
+
+    /**
+     * The manifest of the files which were last extracted into the source and resource directories, see {@link IncrementalZipExtractor}.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getExtractionManifest();
+
+    /**
+     * The list the written and deleted files are appended to, so the next commit only has to stage those, see {@link PendingChanges}.
+     */
+    @Internal
+    public abstract RegularFileProperty getPendingChanges();
+
     @TaskAction
     public void doExtract() throws IOException {
-        Utils.extractZip(getDecompiledJar().get().getAsFile(), getSourceFilesDirectory().get().getAsFile(), true, true);
-
-        Utils.moveFiles(getSourceFilesDirectory().get(), getResourceFilesDirectory().get(), filter -> {
-            filter.include("assets/**");
-            filter.include("data/**");
-            filter.include("META-INF/**");
-            filter.include("*.*");
-        });
+        final Path sources = getSourceFilesDirectory().get().getAsFile().toPath().toAbsolutePath().normalize();
+        final Path resources = getResourceFilesDirectory().get().getAsFile().toPath().toAbsolutePath().normalize();
+        final Map<String, Path> sideSources = normalize(getSideSourceDirectories().get());
+        final Map<String, Path> sideResources = normalize(getSideResourceDirectories().get());
+        if (!sideSources.keySet().equals(sideResources.keySet()))
+            throw new IllegalStateException("The sides of the source directories " + sideSources.keySet() + " do not match the sides of the resource directories " + sideResources.keySet());
+
+        // Extract relative to the common parent of all directories, so every entry is written once, straight into its final location.
+        final List<Path> directories = new ArrayList<>();
+        directories.add(resources);
+        directories.addAll(sideSources.values());
+        directories.addAll(sideResources.values());
+        Path base = sources;
+        for (final Path directory : directories) {
+            while (!directory.startsWith(base)) {
+                base = base.getParent();
+            }
+        }
+        final String sourcePrefix = relativePrefix(base, sources);
+        final String resourcePrefix = relativePrefix(base, resources);
+        final Map<String, String> sideSourcePrefixes = new HashMap<>();
+        final Map<String, String> sideResourcePrefixes = new HashMap<>();
+        for (final String side : sideSources.keySet()) {
+            sideSourcePrefixes.put(side + "/", relativePrefix(base, sideSources.get(side)));
+            sideResourcePrefixes.put(side + "/", relativePrefix(base, sideResources.get(side)));
+        }
+
+        final SourceRouter router = new SourceRouter(getResourcePatterns().get());
+        final IncrementalZipExtractor.Result result = new IncrementalZipExtractor(getExtractionManifest().get().getAsFile()).extract(
+                getDecompiledJar().get().getAsFile(),
+                base.toFile(),
+                name -> {
+                    final int separator = name.indexOf('/');
+                    final String side = separator < 0 ? null : name.substring(0, separator + 1);
+                    if (side != null && sideSourcePrefixes.containsKey(side)) {
+                        final String path = name.substring(side.length());
+                        return (router.isResource(path) ? sideResourcePrefixes.get(side) : sideSourcePrefixes.get(side)) + path;
+                    }
+                    return (router.isResource(name) ? resourcePrefix : sourcePrefix) + name;
+                }
+        );
+
+        if (getPendingChanges().isPresent()) {
+            final PendingChanges pendingChanges = new PendingChanges(getPendingChanges().get().getAsFile());
+            if (result.isIncremental()) {
+                final Map<Path, BlobKey> changes = new LinkedHashMap<>();
+                for (final String name : result.getWritten()) {
+                    changes.put(base.resolve(name), new BlobKey(result.getSize(name), result.getCrc(name)));
+                }
+                for (final String name : result.getDeleted()) {
+                    changes.put(base.resolve(name), null);
+                }
+                pendingChanges.append(changes);
+            } else {
+                pendingChanges.markIncomplete();
+            }
+        }
+    }
+
+    private static Map<String, Path> normalize(final Map<String, File> directories) {
+        final Map<String, Path> normalized = new TreeMap<>();
+        directories.forEach((side, directory) -> normalized.put(side, directory.toPath().toAbsolutePath().normalize()));
+        return normalized;
+    }
+
+    private static String relativePrefix(final Path base, final Path directory) {
+        final String relative = base.relativize(directory).toString().replace(File.separatorChar, '/');
+        return relative.isEmpty() ? "" : relative + "/";
     }
 }
@@ -0,0 +1,31 @@
+package buildSrc.tasks;
+
+import buildSrc.utils.merge.SideMerger;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.*;
+
+import java.io.IOException;
+
+/**
+ * Joins the decompiled client and server jars of a version, see {@link SideMerger}.
+ */
+@CacheableTask
+public abstract class MergeSidesTask extends DefaultTask {
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getClientJar();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getServerJar();
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputJar();
+
+    @TaskAction
+    public void doMerge() throws IOException {
+        SideMerger.merge(getClientJar().get().getAsFile(), getServerJar().get().getAsFile(), getOutputJar().get().getAsFile());
+    }
+}
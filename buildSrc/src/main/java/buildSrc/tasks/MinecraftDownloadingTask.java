@@ -1,44 +1,82 @@
 package buildSrc.tasks;
 
 import buildSrc.extensions.MinecraftArtifactCacheExtension;
-import buildSrc.utils.ArtifactSide;
 import buildSrc.utils.GameArtifact;
-import com.google.common.collect.Maps;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.provider.MapProperty;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 
 public abstract class MinecraftDownloadingTask extends DefaultTask {
 
-    private final Map<GameArtifact, File> outputFiles = Maps.newHashMap();
-
     public MinecraftDownloadingTask() {
-        super();
-
-        getOutputs().upToDateWhen(o -> false);
+        getArtifacts().convention(Arrays.asList(GameArtifact.VERSION_MANIFEST, GameArtifact.CLIENT_JAR, GameArtifact.CLIENT_MAPPINGS));
+        getPrefetchVersions().convention(Collections.emptyList());
     }
 
     @Input
     public abstract Property<String> getMinecraftVersion();
 
-    @OutputFiles
+    /**
+     * The artifacts of the version which are used by the pipeline, only these are downloaded.
+     */
+    @Input
+    public abstract SetProperty<GameArtifact> getArtifacts();
+
+    /**
+     * The versions whose artifacts are downloaded in the background once this version is available.
+     */
+    @Internal
+    public abstract ListProperty<String> getPrefetchVersions();
+
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+
+    /**
+     * The location of each artifact in the cache, known before the task executes.
+     * The launcher manifest is shared between all versions and as such is not an output of this task.
+     */
+    @Internal
     public Map<GameArtifact, File> getOutputFiles() {
+        final String minecraftVersion = getMinecraftVersion().get();
+        final Map<GameArtifact, File> outputFiles = new EnumMap<>(GameArtifact.class);
+        for (final GameArtifact artifact : getArtifacts().get()) {
+            if (artifact == GameArtifact.LAUNCHER_MANIFEST)
+                continue;
+
+            outputFiles.put(artifact, getCacheDirectory().file(artifact.getCacheSelectorForVersion(minecraftVersion).getCacheFileName()).get().getAsFile());
+        }
         return outputFiles;
     }
 
+    @OutputFiles
+    public Collection<File> getArtifactFiles() {
+        return getOutputFiles().values();
+    }
+
     @TaskAction
     public void doDownload() throws Exception
     {
         final String minecraftVersion = getMinecraftVersion().get();
         final MinecraftArtifactCacheExtension cacheExtension = getProject().getExtensions().getByType(MinecraftArtifactCacheExtension.class);
 
-        outputFiles.putAll(cacheExtension.cacheGameVersion(minecraftVersion, ArtifactSide.JOINED));
+        cacheExtension.cacheGameArtifacts(minecraftVersion, getArtifacts().get());
+
+        // Let the next versions download while this one is renamed and decompiled.
+        for (final String prefetchVersion : getPrefetchVersions().get()) {
+            cacheExtension.prefetchGameArtifacts(prefetchVersion, getArtifacts().get());
+        }
     }
 }
@@ -0,0 +1,140 @@
+package buildSrc.tasks;
+
+import buildSrc.extensions.MinecraftArtifactCacheExtension;
+import buildSrc.utils.Artifact;
+import buildSrc.utils.GameArtifact;
+import buildSrc.utils.LauncherManifestIndex;
+import buildSrc.utils.Utils;
+import buildSrc.utils.VersionJson;
+import buildSrc.utils.mirror.MirrorBundle;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.artifacts.ResolvedArtifact;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.result.ArtifactResolutionResult;
+import org.gradle.api.artifacts.result.ArtifactResult;
+import org.gradle.api.artifacts.result.ComponentArtifactsResult;
+import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.maven.MavenModule;
+import org.gradle.maven.MavenPomArtifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Packs every manifest, jar, mapping and library of a range of versions, and the classpaths of the worker tools, into a single {@link MirrorBundle}.
+ */
+public abstract class PackMirrorBundleTask extends DefaultTask {
+
+    public PackMirrorBundleTask() {
+        getArtifacts().convention(Arrays.asList(GameArtifact.values()));
+    }
+
+    @Input
+    public abstract ListProperty<String> getMinecraftVersions();
+
+    @Input
+    public abstract SetProperty<GameArtifact> getArtifacts();
+
+    @OutputFile
+    public abstract RegularFileProperty getBundle();
+
+    @TaskAction
+    public void doPack() throws IOException {
+        final MinecraftArtifactCacheExtension cacheExtension = getProject().getExtensions().getByType(MinecraftArtifactCacheExtension.class);
+        final File libraryDirectory = cacheExtension.getCacheDirectory().dir("libraries").get().getAsFile();
+
+        try (MirrorBundle.Writer writer = new MirrorBundle.Writer(getBundle().get().getAsFile())) {
+            writer.add(new URL(cacheExtension.getLauncherManifestUrl().get()), cacheExtension.cacheLauncherMetadata());
+            final LauncherManifestIndex manifest = cacheExtension.getLauncherManifest();
+
+            for (final String version : getMinecraftVersions().get()) {
+                final String versionUrl = manifest.getUrl(version);
+                if (versionUrl == null)
+                    throw new IllegalStateException("Unknown version: " + version);
+
+                final Map<GameArtifact, File> artifacts = cacheExtension.cacheGameArtifacts(version, getArtifacts().get());
+                final File versionFile = cacheExtension.cacheVersionManifest(version);
+                writer.add(new URL(versionUrl), versionFile);
+
+                final VersionJson versionJson = VersionJson.get(versionFile);
+                for (final Map.Entry<GameArtifact, File> artifact : artifacts.entrySet()) {
+                    final String key = getDownloadKey(artifact.getKey());
+                    if (key == null || versionJson.getDownloads() == null || !versionJson.getDownloads().containsKey(key))
+                        continue;
+                    writer.add(versionJson.getDownloads().get(key).getUrl(), artifact.getValue());
+                }
+
+                for (final VersionJson.Library library : versionJson.getLibraries()) {
+                    final VersionJson.LibraryDownload download = library.getDownloads() == null ? null : library.getDownloads().getArtifact();
+                    if (download == null)
+                        continue;
+
+                    final File file = Utils.updateDownload(getProject(), new File(libraryDirectory, download.getPath()), download);
+                    writer.addLibrary(download.getPath(), file);
+                }
+                getLogger().lifecycle("Packed Minecraft {}", version);
+            }
+
+            this.packWorkerClasspath(writer, DecompileJarTask.getOrCreateWorkerConfiguration(getProject()));
+            this.packWorkerClasspath(writer, RenameJarTask.getOrCreateWorkerConfiguration(getProject()));
+        }
+    }
+
+    /**
+     * Packs the resolved classpath of a worker tool together with the poms of its modules, so the tool resolves from the bundle.
+     */
+    private void packWorkerClasspath(final MirrorBundle.Writer writer, final Configuration configuration) throws IOException {
+        final Set<ComponentIdentifier> components = new HashSet<>();
+        for (final ResolvedArtifact artifact : configuration.getResolvedConfiguration().getResolvedArtifacts()) {
+            final ModuleVersionIdentifier id = artifact.getModuleVersion().getId();
+            writer.addLibrary(Artifact.from(id.getGroup(), id.getName(), id.getVersion(), artifact.getClassifier(), artifact.getExtension()).getPath(), artifact.getFile());
+            components.add(artifact.getId().getComponentIdentifier());
+        }
+
+        final ArtifactResolutionResult poms = getProject().getDependencies().createArtifactResolutionQuery()
+                .forComponents(components)
+                .withArtifacts(MavenModule.class, MavenPomArtifact.class)
+                .execute();
+        for (final ComponentArtifactsResult component : poms.getResolvedComponents()) {
+            if (!(component.getId() instanceof ModuleComponentIdentifier))
+                continue;
+
+            final ModuleComponentIdentifier id = (ModuleComponentIdentifier) component.getId();
+            for (final ArtifactResult pom : component.getArtifacts(MavenPomArtifact.class)) {
+                if (pom instanceof ResolvedArtifactResult) {
+                    writer.addLibrary(Artifact.from(id.getGroup(), id.getModule(), id.getVersion(), null, "pom").getPath(), ((ResolvedArtifactResult) pom).getFile());
+                }
+            }
+        }
+        getLogger().lifecycle("Packed the {} worker classpath", configuration.getName());
+    }
+
+    private static String getDownloadKey(final GameArtifact artifact) {
+        switch (artifact) {
+            case CLIENT_JAR:
+                return "client";
+            case SERVER_JAR:
+                return "server";
+            case CLIENT_MAPPINGS:
+                return "client_mappings";
+            case SERVER_MAPPINGS:
+                return "server_mappings";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package buildSrc.tasks;
+
+import buildSrc.workers.JarLineMappingWorker;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.*;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+
+@CacheableTask
+public abstract class RemapLineNumbersTask extends DefaultTask {
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getInputJar();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getLineMappingFile();
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputJar();
+
+    @TaskAction
+    public void doRemap() {
+        this.getWorkerExecutor().noIsolation().submit(JarLineMappingWorker.class, parameters -> {
+            parameters.getInputJar().set(getInputJar());
+            parameters.getLineMappingFile().set(getLineMappingFile());
+            parameters.getOutputJar().set(getOutputJar());
+        });
+        // Nothing but the final build task consumes the remapped jar, so extracting and committing this version carries on meanwhile.
+    }
+}
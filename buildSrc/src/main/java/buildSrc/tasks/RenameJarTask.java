@@ -1,8 +1,9 @@
 package buildSrc.tasks;
 
+import buildSrc.services.HeavyWorkerService;
 import buildSrc.workers.JarRenameWorker;
-import com.sun.management.OperatingSystemMXBean;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFileProperty;
@@ -12,13 +13,14 @@ import org.gradle.jvm.toolchain.JavaLauncher;
 import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
-import java.lang.management.ManagementFactory;
 
+@CacheableTask
 public abstract class RenameJarTask extends DefaultTask {
 
     private static final String FART_VERSION ="0.1.24";
+    private static final String WORKER_CONFIGURATION = "renamerWorker";
 
-    @Input
+    @Nested
     @Optional
     public abstract Property<JavaLauncher> getJavaLauncher();
 
@@ -26,13 +28,18 @@ public abstract class RenameJarTask extends DefaultTask {
     protected abstract WorkerExecutor getWorkerExecutor();
 
     @InputFile
-    @PathSensitive(PathSensitivity.RELATIVE)
+    @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getInputJar();
 
     @InputFile
-    @PathSensitive(PathSensitivity.RELATIVE)
+    @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getMappingFile();
 
+    @Input
+    public String getRenamerVersion() {
+        return FART_VERSION;
+    }
+
     @OutputFile
     public abstract RegularFileProperty getOutputJar();
 
@@ -40,12 +47,9 @@ public abstract class RenameJarTask extends DefaultTask {
     public void doDecompile() throws Exception {
         // Execute in an isolated JVM that can access our customized classpath
         // This actually performs the decompile
-        final long totalSystemMemoryBytes =
-                ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / (1024L * 1024L);
-
         this.getWorkerExecutor().processIsolation(spec -> {
             spec.forkOptions(options -> {
-                options.setMaxHeapSize(Math.max(totalSystemMemoryBytes / 4, 4096) + "M");
+                options.setMaxHeapSize(HeavyWorkerService.getWorkerHeapMegabytes() + "M");
                 // Enable toolchain support
                 if (this.getJavaLauncher().isPresent()) {
                     final JavaLauncher launcher = this.getJavaLauncher().get();
@@ -58,13 +62,25 @@ public abstract class RenameJarTask extends DefaultTask {
             parameters.getOutputJar().set(getOutputJar());
             parameters.getMappingFile().set(getMappingFile());
         });
-        this.getWorkerExecutor().await();
     }
 
     private FileCollection getWorkerClasspath() {
-        final Configuration forgeFlower = this.getProject().getConfigurations().detachedConfiguration();
-        forgeFlower.defaultDependencies(deps -> deps.add(getProject().getDependencies().create("net.minecraftforge:ForgeAutoRenamingTool:" + FART_VERSION + ":all")));
-        return forgeFlower.getIncoming().getFiles();
+        return getOrCreateWorkerConfiguration(this.getProject()).getIncoming().getFiles();
     }
 
+    /**
+     * All rename tasks share one worker classpath, which is resolved once per build.
+     */
+    public static Configuration getOrCreateWorkerConfiguration(final Project project) {
+        final Configuration existing = project.getConfigurations().findByName(WORKER_CONFIGURATION);
+        if (existing != null) {
+            return existing;
+        }
+
+        return project.getConfigurations().create(WORKER_CONFIGURATION, fart -> {
+            fart.setVisible(false);
+            fart.setCanBeConsumed(false);
+            fart.defaultDependencies(deps -> deps.add(project.getDependencies().create("net.minecraftforge:ForgeAutoRenamingTool:" + FART_VERSION + ":all")));
+        });
+    }
 }
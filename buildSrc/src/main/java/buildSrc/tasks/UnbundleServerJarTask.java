@@ -0,0 +1,48 @@
+package buildSrc.tasks;
+
+import buildSrc.utils.extract.SourceRouter;
+import buildSrc.utils.merge.ServerJarUnbundler;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.tasks.*;
+
+import java.io.IOException;
+
+/**
+ * Strips the bundled or shaded libraries from a server jar, see {@link ServerJarUnbundler}.
+ */
+@CacheableTask
+public abstract class UnbundleServerJarTask extends DefaultTask {
+
+    public UnbundleServerJarTask() {
+        getResourcePatterns().convention(SourceRouter.DEFAULT_RESOURCE_PATTERNS);
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getServerJar();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getMappingFile();
+
+    /**
+     * The include patterns of the resources which are kept, besides the game classes.
+     */
+    @Input
+    public abstract ListProperty<String> getResourcePatterns();
+
+    @OutputFile
+    public abstract RegularFileProperty getOutputJar();
+
+    @TaskAction
+    public void doUnbundle() throws IOException {
+        ServerJarUnbundler.unbundle(
+                getServerJar().get().getAsFile(),
+                getMappingFile().get().getAsFile(),
+                new SourceRouter(getResourcePatterns().get()),
+                getOutputJar().get().getAsFile()
+        );
+    }
+}
@@ -0,0 +1,109 @@
+package buildSrc.utils;
+
+import com.google.common.util.concurrent.Striped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A store of files keyed by their SHA-1, shared by all versions, builds and daemons which use the same cache directory.
+ *
+ * <p>Each object is stored once under {@code objects/<sha1[0:2]>/<sha1>}. The per version paths are views of the objects,
+ * created as hardlinks where the file system supports them and as copies otherwise. Objects are only ever written while
+ * holding both an in-process lock and a file lock on the object, so concurrent builds on the same host share a single
+ * download of each object.</p>
+ */
+public final class ContentAddressedStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentAddressedStore.class);
+
+    private static final Map<Path, ContentAddressedStore> STORES = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Striped<Lock> locks = Striped.lazyWeakLock(64);
+
+    private ContentAddressedStore(final Path root) {
+        this.root = root;
+    }
+
+    public static ContentAddressedStore get(final File root) {
+        return STORES.computeIfAbsent(root.toPath().toAbsolutePath().normalize(), ContentAddressedStore::new);
+    }
+
+    @FunctionalInterface
+    public interface ObjectWriter {
+        /**
+         * Writes the object to the given file, and verifies its hash.
+         */
+        void write(File object) throws IOException;
+    }
+
+    public File getObject(final String sha1) {
+        final String hash = sha1.toLowerCase(Locale.ROOT);
+        return this.root.resolve(hash.substring(0, 2)).resolve(hash).toFile();
+    }
+
+    /**
+     * Makes the object with the given hash available at the given view, writing the object first if it is not stored yet.
+     *
+     * @param sha1 The SHA-1 of the object.
+     * @param view The path at which the object should be visible.
+     * @param writer Writes the object when it is missing from the store.
+     * @return The view.
+     */
+    public File materialize(final String sha1, final File view, final ObjectWriter writer) throws IOException {
+        final File object = this.getObject(sha1);
+        final Lock lock = this.locks.get(object.getName());
+        lock.lock();
+        try {
+            Files.createDirectories(object.toPath().getParent());
+            final Path lockFile = object.toPath().resolveSibling(object.getName() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                if (!object.exists()) {
+                    if (view.exists() && HashFunction.SHA1.hash(view).equalsIgnoreCase(sha1)) {
+                        // Adopt a file which was cached before the store existed, instead of downloading it again.
+                        link(view.toPath(), object.toPath());
+                    } else {
+                        writer.write(object);
+                    }
+                    if (!object.exists())
+                        throw new IOException("The object " + sha1 + " was not written to the store");
+                }
+                link(object.toPath(), view.toPath());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return view;
+    }
+
+    private static void link(final Path object, final Path view) throws IOException {
+        if (Files.exists(view) && Files.isSameFile(object, view))
+            return;
+
+        Files.createDirectories(view.toAbsolutePath().getParent());
+        final Path temp = view.resolveSibling(view.getFileName() + ".link");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createLink(temp, object);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            LOGGER.debug("Can not hardlink {} to {}, copying it instead", object, view, e);
+            Files.copy(object, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        try {
+            Files.move(temp, view, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, view, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
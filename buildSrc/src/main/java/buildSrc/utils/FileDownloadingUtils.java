@@ -1,19 +1,27 @@
 
 package buildSrc.utils;
 
-import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Optional;
 
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.IOException;
-import java.io.Serializable;
+import java.io.*;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Properties;
 
 public final class FileDownloadingUtils {
 
+    private static final int CONNECT_TIMEOUT = 30 * 1000;
+    private static final int READ_TIMEOUT = 60 * 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private FileDownloadingUtils() {
         throw new IllegalStateException("Can not instantiate an instance of: FileDownloadingUtils. This is a utility class");
     }
@@ -28,22 +36,312 @@ public final class FileDownloadingUtils {
     }
 
     public static void downloadTo(Project project, DownloadInfo info, File file) throws IOException {
+        final FileHashCache hashes = FileHashCache.get(project);
+
+        // Check if the file is already present and intact
+        if (info.hash != null && info.hash.equalsIgnoreCase(hashes.hash(file, HashFunction.SHA1))) {
+            return;
+        }
+
         // Check if file exists in local installer cache
         if (info.type.equals("jar") && info.side.equals("client")) {
             File localPath = new File(Utils.getMCDir() + File.separator + "versions" + File.separator + info.version + File.separator + info.version + ".jar");
-            if (localPath.exists() && HashFunction.SHA1.hash(localPath).equalsIgnoreCase(info.hash)) {
+            if (info.hash != null && info.hash.equalsIgnoreCase(hashes.hash(localPath, HashFunction.SHA1))) {
                 org.apache.commons.io.FileUtils.copyFile(localPath, file);
+                hashes.put(file, HashFunction.SHA1, info.hash);
                 return;
             }
         }
 
         if (!project.getGradle().getStartParameter().isOffline()) {
-            FileUtils.copyURLToFile(new URL(info.url), file);
+            if (info.hash == null && info.type.equals("json")) {
+                // Metadata without a known hash, revalidate it at most once per timeout.
+                revalidate(new URL(info.url), file, Utils.CACHE_TIMEOUT, RetryPolicy.DEFAULT);
+                return;
+            }
+
+            download(new URL(info.url), file, info.hash, RetryPolicy.DEFAULT);
+            if (info.hash != null) {
+                // The hash was verified while downloading, so the next check does not have to read the file.
+                hashes.put(file, HashFunction.SHA1, info.hash);
+            }
         } else if (!file.exists()) {
             throw new RuntimeException("Could not find the file: " + file + " and we are offline.");
         }
     }
 
+    /**
+     * Downloads the given url into a temporary file next to the target, and moves it into place once it is complete.
+     *
+     * <p>An interrupted download is resumed through a range request, either in the next attempt or in a later build.
+     * The SHA-1 is computed while the file is streamed, and the file is only moved into place when it matches.</p>
+     *
+     * @param url The url to download.
+     * @param target The file to download to.
+     * @param sha1 The expected SHA-1 of the file, or null when it is not known.
+     * @param policy The policy which decides how often, and after how long, a failed attempt is retried.
+     */
+    public static void download(URL url, File target, @Nullable String sha1, RetryPolicy policy) throws IOException {
+        final File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+
+        final File part = new File(parent, target.getName() + ".part");
+        IOException failure = null;
+        for (int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++) {
+            try {
+                downloadPart(url, part, sha1);
+                move(part, target);
+                return;
+            } catch (NonRetryableDownloadException e) {
+                throw e;
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+
+            if (attempt < policy.getMaxAttempts()) {
+                try {
+                    Thread.sleep(policy.getDelay(attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry the download of: " + url);
+                }
+            }
+        }
+
+        throw new IOException(String.format("Failed to download %s after %d attempts", url, policy.getMaxAttempts()), failure);
+    }
+
+    /**
+     * Keeps a file without a known hash up to date, with as little network traffic as possible.
+     *
+     * <p>A sidecar next to the file records its ETag, Last-Modified header and the time it was last validated.
+     * Within the time to live the file is used as is, without any network access. Afterwards a conditional request
+     * is made, and a 304 response only refreshes the validation time.</p>
+     *
+     * @param url The url to download.
+     * @param target The file to download to.
+     * @param timeToLive The time in milliseconds after which the file is validated again.
+     * @param policy The policy which decides how often, and after how long, a failed attempt is retried.
+     */
+    public static void revalidate(URL url, File target, long timeToLive, RetryPolicy policy) throws IOException {
+        final File metadataFile = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".meta");
+        final Properties metadata = new Properties();
+        if (target.exists() && metadataFile.exists()) {
+            try (InputStream stream = new FileInputStream(metadataFile)) {
+                metadata.load(stream);
+            } catch (IOException | IllegalArgumentException e) {
+                metadata.clear();
+            }
+        }
+
+        final long fetchedAt = Long.parseLong(metadata.getProperty("fetchedAt", "0"));
+        final long now = System.currentTimeMillis();
+        if (target.exists() && fetchedAt <= now && now - fetchedAt < timeToLive)
+            return;
+
+        IOException failure = null;
+        for (int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++) {
+            try {
+                revalidateOnce(url, target, metadata);
+                metadata.setProperty("fetchedAt", Long.toString(System.currentTimeMillis()));
+                writeMetadata(metadataFile, metadata);
+                return;
+            } catch (NonRetryableDownloadException e) {
+                throw e;
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+
+            if (attempt < policy.getMaxAttempts()) {
+                try {
+                    Thread.sleep(policy.getDelay(attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry the download of: " + url);
+                }
+            }
+        }
+
+        throw new IOException(String.format("Failed to download %s after %d attempts", url, policy.getMaxAttempts()), failure);
+    }
+
+    private static void revalidateOnce(URL url, File target, Properties metadata) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (target.exists()) {
+                if (metadata.containsKey("etag"))
+                    connection.setRequestProperty("If-None-Match", metadata.getProperty("etag"));
+                if (metadata.containsKey("lastModified"))
+                    connection.setRequestProperty("If-Modified-Since", metadata.getProperty("lastModified"));
+            }
+
+            final int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && target.exists())
+                return;
+            if (code >= 500 || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT || code == 429)
+                throw new IOException("Server responded with " + code + " for: " + url);
+            if (code != HttpURLConnection.HTTP_OK)
+                throw new NonRetryableDownloadException("Server responded with " + code + " for: " + url);
+
+            final File part = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".part");
+            part.getParentFile().mkdirs();
+            final long expectedLength = connection.getContentLengthLong();
+            final long written;
+            try (InputStream stream = connection.getInputStream();
+                 OutputStream output = new FileOutputStream(part)) {
+                written = update(null, stream, output);
+            }
+            if (expectedLength >= 0 && written != expectedLength)
+                throw new IOException(String.format("Download of %s ended after %d of %d bytes", url, written, expectedLength));
+
+            move(part, target);
+
+            metadata.clear();
+            if (connection.getHeaderField("ETag") != null)
+                metadata.setProperty("etag", connection.getHeaderField("ETag"));
+            if (connection.getHeaderField("Last-Modified") != null)
+                metadata.setProperty("lastModified", connection.getHeaderField("Last-Modified"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void writeMetadata(File metadataFile, Properties metadata) throws IOException {
+        final File temp = new File(metadataFile.getParentFile(), metadataFile.getName() + ".tmp");
+        try (OutputStream stream = new FileOutputStream(temp)) {
+            metadata.store(stream, null);
+        }
+        move(temp, metadataFile);
+    }
+
+    private static void downloadPart(URL url, File part, @Nullable String sha1) throws IOException {
+        final MessageDigest digest = HashFunction.SHA1.get();
+        // Without a hash a resumed download can not be verified, and the file on the server may have changed in the meantime.
+        long offset = sha1 != null && part.exists() ? part.length() : 0;
+
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+
+            final int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                // Resume, the digest still has to see the bytes which are already on disk.
+                try (InputStream existing = new FileInputStream(part)) {
+                    update(digest, existing, null);
+                }
+            } else if (code == 416 && offset > 0) {
+                // The temporary file is already complete, or larger than the file on the server.
+                if (sha1 == null || HashFunction.SHA1.hash(part).equalsIgnoreCase(sha1))
+                    return;
+                Files.delete(part.toPath());
+                throw new IOException("The partial download of " + url + " does not match the expected hash, restarting");
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                offset = 0;
+            } else if (code >= 500 || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT || code == 429) {
+                throw new IOException("Server responded with " + code + " for: " + url);
+            } else {
+                throw new NonRetryableDownloadException("Server responded with " + code + " for: " + url);
+            }
+
+            final long expectedLength = connection.getContentLengthLong();
+            final long written;
+            try (InputStream stream = connection.getInputStream();
+                 OutputStream output = new FileOutputStream(part, offset > 0)) {
+                written = update(digest, stream, output);
+            }
+
+            if (expectedLength >= 0 && written != expectedLength)
+                throw new IOException(String.format("Download of %s ended after %d of %d bytes", url, written, expectedLength));
+        } finally {
+            connection.disconnect();
+        }
+
+        if (sha1 != null) {
+            final String actual = HashFunction.SHA1.pad(new BigInteger(1, digest.digest()).toString(16));
+            if (!actual.equalsIgnoreCase(sha1)) {
+                Files.delete(part.toPath());
+                throw new IOException(String.format("Download of %s has hash %s, expected %s", url, actual, sha1));
+            }
+        }
+    }
+
+    private static long update(@Nullable MessageDigest digest, InputStream input, @Nullable OutputStream output) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            if (digest != null)
+                digest.update(buffer, 0, read);
+            if (output != null)
+                output.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Decides how often a failed download is attempted again, with an exponential backoff between the attempts.
+     */
+    public static final class RetryPolicy {
+        public static final RetryPolicy DEFAULT = new RetryPolicy(
+                Integer.getInteger("minecraft.download.attempts", 5),
+                Long.getLong("minecraft.download.initialDelay", 1000L),
+                Long.getLong("minecraft.download.maxDelay", 30000L)
+        );
+
+        private final int maxAttempts;
+        private final long initialDelay;
+        private final long maxDelay;
+
+        public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.initialDelay = Math.max(0, initialDelay);
+            this.maxDelay = Math.max(this.initialDelay, maxDelay);
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        /**
+         * @param attempt The attempt which failed, starting at 1.
+         * @return The time in milliseconds to wait before the next attempt.
+         */
+        public long getDelay(int attempt) {
+            final long delay = initialDelay << Math.min(attempt - 1, 20);
+            return Math.min(delay, maxDelay);
+        }
+    }
+
+    private static final class NonRetryableDownloadException extends IOException {
+        private NonRetryableDownloadException(String message) {
+            super(message);
+        }
+    }
+
     public static class DownloadInfo implements Serializable {
         private String url;
         private String hash;
@@ -0,0 +1,191 @@
+package buildSrc.utils;
+
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent index of file hashes, keyed by the path, size, modification time and file key of each file.
+ *
+ * <p>Asking for the hash of a file which did not change since it was last hashed only costs a stat of the file.
+ * Any change of the size, modification time or identity of the file invalidates its entry.</p>
+ *
+ * <p>The index is an append only log of tab separated lines, which is loaded once per daemon and compacted when
+ * it contains more stale lines than live entries.</p>
+ */
+public final class FileHashCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileHashCache.class);
+
+    private static final String FORMAT = "v1";
+    private static final Map<Path, FileHashCache> CACHES = new ConcurrentHashMap<>();
+
+    private final Path log;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private FileHashCache(final Path log) {
+        this.log = log;
+        this.load();
+    }
+
+    public static FileHashCache get(final Path log) {
+        return CACHES.computeIfAbsent(log.toAbsolutePath().normalize(), FileHashCache::new);
+    }
+
+    public static FileHashCache get(final Project project) {
+        return get(Utils.getCache(project, "file_hashes.log").toPath());
+    }
+
+    /**
+     * @return The hash of the file, or null if the file does not exist.
+     */
+    @Nullable
+    public String hash(final File file, final HashFunction function) throws IOException {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = stat(path);
+        if (attributes == null)
+            return null;
+
+        final String key = key(function, path);
+        final Entry known = this.entries.get(key);
+        if (known != null && known.matches(attributes))
+            return known.hash;
+
+        final String hash = function.hash(path);
+        this.record(key, new Entry(attributes, hash));
+        return hash;
+    }
+
+    /**
+     * Records a hash which is already known, for example because it was computed while the file was written.
+     */
+    public void put(final File file, final HashFunction function, final String hash) throws IOException {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = stat(path);
+        if (attributes != null) {
+            this.record(key(function, path), new Entry(attributes, hash.toLowerCase()));
+        }
+    }
+
+    private void record(final String key, final Entry entry) throws IOException {
+        final Entry previous = this.entries.put(key, entry);
+        if (entry.equals(previous))
+            return;
+
+        final String line = String.join("\t", key, Long.toString(entry.size), Long.toString(entry.modified), entry.fileKey, entry.hash) + "\n";
+        synchronized (this) {
+            Files.createDirectories(this.log.getParent());
+            // A single small append, so concurrent builds which share the log do not tear each others lines.
+            Files.write(this.log, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(this.log))
+            return;
+
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(this.log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t");
+                if (parts.length != 6 || !parts[0].equals(FORMAT))
+                    continue;
+
+                lines++;
+                this.entries.put(parts[0] + "\t" + parts[1], new Entry(Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4], parts[5]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Ignoring the unreadable file hash cache: " + this.log, e);
+            this.entries.clear();
+            return;
+        }
+
+        if (lines > this.entries.size() * 2 + 64) {
+            this.compact();
+        }
+    }
+
+    private synchronized void compact() {
+        final Path temp = this.log.resolveSibling(this.log.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write(String.join("\t", entry.getKey(), Long.toString(value.size), Long.toString(value.modified), value.fileKey, value.hash));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact the file hash cache: " + this.log, e);
+            return;
+        }
+
+        try {
+            Files.move(temp, this.log, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact the file hash cache: " + this.log, e);
+        }
+    }
+
+    private static String key(final HashFunction function, final Path path) {
+        // Tabs and line breaks never occur in the paths we hash, but make sure they can not corrupt the log.
+        return FORMAT + "\t" + function.name() + ":" + path.toString().replace('\t', ' ').replace('\n', ' ');
+    }
+
+    @Nullable
+    private static BasicFileAttributes stat(final Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final String hash;
+
+        private Entry(final BasicFileAttributes attributes, final String hash) {
+            this(attributes.size(), attributes.lastModifiedTime().toMillis(), String.valueOf(attributes.fileKey()), hash);
+        }
+
+        private Entry(final long size, final long modified, final String fileKey, final String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey.replace('\t', ' ');
+            this.hash = hash;
+        }
+
+        private boolean matches(final BasicFileAttributes attributes) {
+            return this.size == attributes.size()
+                    && this.modified == attributes.lastModifiedTime().toMillis()
+                    && this.fileKey.equals(String.valueOf(attributes.fileKey()));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            final Entry entry = (Entry) o;
+            return size == entry.size && modified == entry.modified && fileKey.equals(entry.fileKey) && hash.equals(entry.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, modified, fileKey, hash);
+        }
+    }
+}
@@ -20,19 +20,21 @@
 
 package buildSrc.utils;
 
-import org.apache.commons.io.IOUtils;
-
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Locale;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Different hash functions.
@@ -49,6 +51,10 @@ public enum HashFunction {
     SHA256("SHA-256", 64),
     SHA512("SHA-512", 128);
 
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // Direct buffers are expensive to allocate and are only released by the garbage collector, so each thread keeps its own.
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
     private final String algo;
     private final String pad;
 
@@ -74,16 +80,17 @@ public enum HashFunction {
     }
 
     public String hash(Path file) throws IOException {
-        return hash(Files.readAllBytes(file));
+        return hashAll(file, this).get(this);
     }
 
     public String hash(Iterable<File> files) throws IOException {
         MessageDigest hash = get();
 
+        final ByteBuffer buffer = BUFFER.get();
         for (File file : files) {
             if (!file.exists())
                 continue;
-            hash.update(Files.readAllBytes(file.toPath()));
+            update(file.toPath(), buffer, hash);
         }
         return pad(new BigInteger(1, hash.digest()).toString(16));
     }
@@ -93,7 +100,13 @@ public enum HashFunction {
     }
 
     public String hash(InputStream stream) throws IOException {
-        return hash(IOUtils.toByteArray(stream));
+        final MessageDigest hash = get();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            hash.update(buffer, 0, read);
+        }
+        return pad(new BigInteger(1, hash.digest()).toString(16));
     }
 
     public String hash(byte[] data) {
@@ -103,4 +116,67 @@ public enum HashFunction {
     public String pad(String hash) {
         return (pad + hash).substring(hash.length());
     }
+
+    /**
+     * Computes several hashes of a file at once, reading the file a single time through the direct buffer of the calling thread.
+     *
+     * @return The hash of the file for each of the given functions.
+     */
+    public static Map<HashFunction, String> hashAll(Path file, HashFunction... functions) throws IOException {
+        final MessageDigest[] digests = new MessageDigest[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            digests[i] = functions[i].get();
+        }
+
+        update(file, BUFFER.get(), digests);
+
+        final Map<HashFunction, String> result = new EnumMap<>(HashFunction.class);
+        for (int i = 0; i < functions.length; i++) {
+            result.put(functions[i], functions[i].pad(new BigInteger(1, digests[i].digest()).toString(16)));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the hashes of many files in parallel, on at most one thread per core.
+     * Each thread uses a single fixed size buffer, so the memory use does not depend on the size of the files.
+     *
+     * @return The hashes of each file, in the order of the given files.
+     */
+    public static Map<Path, Map<HashFunction, String>> hashAll(Collection<Path> files, HashFunction... functions) throws IOException {
+        final Map<Path, Map<HashFunction, String>> hashes = new ConcurrentHashMap<>();
+        try {
+            files.parallelStream().distinct().forEach(file -> {
+                try {
+                    hashes.put(file, hashAll(file, functions));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final Map<Path, Map<HashFunction, String>> result = new LinkedHashMap<>();
+        for (Path file : files) {
+            result.put(file, hashes.get(file));
+        }
+        return result;
+    }
+
+    private static void update(Path file, ByteBuffer buffer, MessageDigest... digests) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    // Every digest consumes the same bytes, so rewind the buffer for each of them.
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+                buffer.clear();
+            }
+        }
+    }
 }
@@ -0,0 +1,273 @@
+package buildSrc.utils;
+
+import com.google.gson.stream.JsonReader;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pre-parsed index of the launcher manifest.
+ *
+ * <p>The index is written next to the launcher manifest the first time the manifest is read after it changed, and is then
+ * reused by every following build. It holds one row per version, in the order of the manifest, with the id, url, SHA-1,
+ * type and release time of the version. A permutation of the rows, sorted by id, allows binary searching a version
+ * without parsing or allocating anything but the returned strings.</p>
+ */
+public final class LauncherManifestIndex {
+
+    private static final int MAGIC = 0x4C4D4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final int ROW_SIZE = 4 * 2 * 4 + 8;
+
+    private static final int ID = 0;
+    private static final int URL = 1;
+    private static final int SHA1 = 2;
+    private static final int TYPE = 3;
+
+    private static final Map<Path, LauncherManifestIndex> INDICES = new ConcurrentHashMap<>();
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final long sourceSize;
+    private final long sourceModified;
+
+    private LauncherManifestIndex(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.sourceSize = buffer.getLong(8);
+        this.sourceModified = buffer.getLong(16);
+        this.count = buffer.getInt(24);
+    }
+
+    /**
+     * Opens the index of the given launcher manifest, and (re)builds it if the manifest changed since it was indexed.
+     */
+    public static LauncherManifestIndex get(final File launcherManifest) throws IOException {
+        final Path source = launcherManifest.toPath().toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+
+        final LauncherManifestIndex known = INDICES.get(source);
+        if (known != null && known.isIndexOf(attributes))
+            return known;
+
+        final Path indexFile = source.resolveSibling(source.getFileName() + ".idx");
+        LauncherManifestIndex index = open(indexFile);
+        if (index == null || !index.isIndexOf(attributes)) {
+            write(source, attributes, indexFile);
+            index = open(indexFile);
+            if (index == null)
+                throw new IOException("Failed to index the launcher manifest: " + source);
+        }
+
+        INDICES.put(source, index);
+        return index;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return The ids of all versions, in the order of the manifest, which lists the newest version first.
+     */
+    public List<String> getIds() {
+        final List<String> ids = new ArrayList<>(this.count);
+        for (int i = 0; i < this.count; i++) {
+            ids.add(this.getString(i, ID));
+        }
+        return ids;
+    }
+
+    public boolean contains(final String id) {
+        return this.indexOf(id) >= 0;
+    }
+
+    @Nullable
+    public String getUrl(final String id) {
+        final int row = this.indexOf(id);
+        return row < 0 ? null : this.getString(row, URL);
+    }
+
+    /**
+     * @return The SHA-1 of the version json, or null if the manifest does not list it.
+     */
+    @Nullable
+    public String getSha1(final String id) {
+        final int row = this.indexOf(id);
+        if (row < 0)
+            return null;
+
+        final String sha1 = this.getString(row, SHA1);
+        return sha1.isEmpty() ? null : sha1;
+    }
+
+    @Nullable
+    public String getType(final String id) {
+        final int row = this.indexOf(id);
+        return row < 0 ? null : this.getString(row, TYPE);
+    }
+
+    /**
+     * @return The release time in milliseconds since the epoch, or -1 if the version is unknown.
+     */
+    public long getReleaseTime(final String id) {
+        final int row = this.indexOf(id);
+        return row < 0 ? -1 : this.buffer.getLong(rowOffset(row) + 4 * 2 * 4);
+    }
+
+    /**
+     * @return The row of the version in manifest order, or a negative value if the version is unknown.
+     */
+    public int indexOf(final String id) {
+        final int sorted = HEADER_SIZE + this.count * ROW_SIZE;
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int row = this.buffer.getInt(sorted + middle * 4);
+            final int compared = this.compare(row, ID, id);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isIndexOf(final BasicFileAttributes attributes) {
+        return this.sourceSize == attributes.size() && this.sourceModified == attributes.lastModifiedTime().toMillis();
+    }
+
+    private static int rowOffset(final int row) {
+        return HEADER_SIZE + row * ROW_SIZE;
+    }
+
+    private String getString(final int row, final int field) {
+        final int offset = this.buffer.getInt(rowOffset(row) + field * 8);
+        final int length = this.buffer.getInt(rowOffset(row) + field * 8 + 4);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = this.buffer.getChar(offset + i * 2);
+        }
+        return new String(chars);
+    }
+
+    private int compare(final int row, final int field, final String value) {
+        final int offset = this.buffer.getInt(rowOffset(row) + field * 8);
+        final int length = this.buffer.getInt(rowOffset(row) + field * 8 + 4);
+        final int shared = Math.min(length, value.length());
+        for (int i = 0; i < shared; i++) {
+            final int compared = this.buffer.getChar(offset + i * 2) - value.charAt(i);
+            if (compared != 0)
+                return compared;
+        }
+        return length - value.length();
+    }
+
+    @Nullable
+    private static LauncherManifestIndex open(final Path indexFile) throws IOException {
+        if (!Files.exists(indexFile))
+            return null;
+
+        // The index is only a few tens of KB. Read it onto the heap instead of mapping it, an open mapping would block
+        // replacing the file on Windows once the manifest changes while the daemon keeps this instance alive.
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            return null;
+        return new LauncherManifestIndex(buffer);
+    }
+
+    private static void write(final Path source, final BasicFileAttributes attributes, final Path indexFile) throws IOException {
+        final List<String[]> versions = new ArrayList<>();
+        final List<Long> releaseTimes = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(source, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("versions")) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final String[] version = new String[] { "", "", "", "" };
+                    long releaseTime = 0;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "id": version[ID] = reader.nextString(); break;
+                            case "url": version[URL] = reader.nextString(); break;
+                            case "sha1": version[SHA1] = reader.nextString(); break;
+                            case "type": version[TYPE] = reader.nextString(); break;
+                            case "releaseTime": releaseTime = parseTime(reader.nextString()); break;
+                            default: reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    versions.add(version);
+                    releaseTimes.add(releaseTime);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+
+        final Integer[] sorted = new Integer[versions.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, Comparator.comparing(row -> versions.get(row)[ID]));
+
+        final Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(attributes.size());
+            out.writeLong(attributes.lastModifiedTime().toMillis());
+            out.writeInt(versions.size());
+
+            int offset = HEADER_SIZE + versions.size() * ROW_SIZE + versions.size() * 4;
+            for (int i = 0; i < versions.size(); i++) {
+                for (final String value : versions.get(i)) {
+                    out.writeInt(offset);
+                    out.writeInt(value.length());
+                    offset += value.length() * 2;
+                }
+                out.writeLong(releaseTimes.get(i));
+            }
+            for (final Integer row : sorted) {
+                out.writeInt(row);
+            }
+            for (final String[] version : versions) {
+                for (final String value : version) {
+                    out.writeChars(value);
+                }
+            }
+        }
+
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long parseTime(final String time) {
+        try {
+            return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package buildSrc.utils;
+
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ResolvedArtifact;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Resolves the libraries of all versions in one batch, and hands out the files of each version from the result.
+ *
+ * <p>The distinct libraries of all versions are split into layers, which hold at most one version of each module, so
+ * the conflict resolution of Gradle never replaces a library by another version. Each layer is resolved as a single
+ * configuration, so the amount of resolutions depends on the amount of versions of the most often updated library,
+ * and the resolved artifacts on the amount of distinct libraries, not on the amount of versions.</p>
+ *
+ * <p>Libraries are resolved without their transitive dependencies, the version json already lists every library.</p>
+ */
+public final class LibraryResolver {
+
+    private final Project project;
+    private final Function<String, List<Artifact>> librariesOfVersion;
+    private final List<String> versions;
+    private final Map<String, List<Artifact>> libraries = new HashMap<>();
+
+    private Map<String, List<File>> filesByVersion;
+
+    /**
+     * @param versions The versions whose libraries are resolved in the batch.
+     * @param librariesOfVersion Looks up the libraries of a version, only called once the first version is requested.
+     */
+    public LibraryResolver(final Project project, final Collection<String> versions, final Function<String, List<Artifact>> librariesOfVersion) {
+        this.project = project;
+        this.versions = new ArrayList<>(versions);
+        this.librariesOfVersion = librariesOfVersion;
+    }
+
+    /**
+     * @return The libraries of the given version, in the order of its version json.
+     */
+    public synchronized List<Artifact> getLibraries(final String version) {
+        return this.libraries.computeIfAbsent(version, this.librariesOfVersion);
+    }
+
+    /**
+     * @return The files of the libraries of the given version, resolving the libraries of all versions on the first call.
+     */
+    public synchronized List<File> getFiles(final String version) {
+        if (this.filesByVersion == null) {
+            this.filesByVersion = this.resolve();
+        }
+
+        final List<File> files = this.filesByVersion.get(version);
+        if (files == null)
+            throw new IllegalArgumentException("The libraries of " + version + " were not part of the batch");
+        return files;
+    }
+
+    private Map<String, List<File>> resolve() {
+        final Map<String, List<Artifact>> librariesByVersion = new LinkedHashMap<>();
+        final Map<String, SortedSet<String>> versionsByModule = new HashMap<>();
+        final Set<Artifact> distinct = new LinkedHashSet<>();
+        for (final String version : this.versions) {
+            final List<Artifact> libraries = this.getLibraries(version);
+            librariesByVersion.put(version, libraries);
+            for (final Artifact library : libraries) {
+                distinct.add(library);
+                versionsByModule.computeIfAbsent(library.getGroup() + ":" + library.getName(), module -> new TreeSet<>()).add(library.getVersion());
+            }
+        }
+
+        final List<Configuration> layers = new ArrayList<>();
+        for (final Artifact library : distinct) {
+            final int layer = new ArrayList<>(versionsByModule.get(library.getGroup() + ":" + library.getName())).indexOf(library.getVersion());
+            while (layers.size() <= layer) {
+                final Configuration configuration = this.project.getConfigurations().detachedConfiguration();
+                configuration.setTransitive(false);
+                layers.add(configuration);
+            }
+            layers.get(layer).getDependencies().add(this.project.getDependencies().create(library.getDescriptor()));
+        }
+
+        final Map<Artifact, File> files = new HashMap<>();
+        for (final Configuration layer : layers) {
+            for (final ResolvedArtifact artifact : layer.getResolvedConfiguration().getResolvedArtifacts()) {
+                final Artifact resolved = Artifact.from(
+                        artifact.getModuleVersion().getId().getGroup(),
+                        artifact.getModuleVersion().getId().getName(),
+                        artifact.getModuleVersion().getId().getVersion(),
+                        artifact.getClassifier(),
+                        artifact.getExtension().isEmpty() ? null : artifact.getExtension()
+                );
+                files.put(resolved, artifact.getFile());
+            }
+        }
+        this.project.getLogger().info("Resolved {} distinct libraries of {} versions in {} layers", distinct.size(), this.versions.size(), layers.size());
+
+        final Map<String, List<File>> filesByVersion = new HashMap<>();
+        librariesByVersion.forEach((version, libraries) -> {
+            final List<File> versionFiles = new ArrayList<>();
+            for (final Artifact library : libraries) {
+                final File file = files.get(library);
+                if (file == null)
+                    throw new IllegalStateException("Could not resolve the library " + library + " of " + version);
+                versionFiles.add(file);
+            }
+            filesByVersion.put(version, Collections.unmodifiableList(versionFiles));
+        });
+        return filesByVersion;
+    }
+}
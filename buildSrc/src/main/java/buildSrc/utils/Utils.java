@@ -36,7 +36,7 @@ import java.util.zip.ZipOutputStream;
 
 public class Utils {
     private static final boolean ENABLE_FILTER_REPOS = Boolean.parseBoolean(System.getProperty("net.minecraftforge.gradle.filter_repos", "true"));
-    static final int CACHE_TIMEOUT = 1000 * 60 * 60; //1 hour, Timeout used for version_manifest.json so we dont ping their server every request.
+    static final int CACHE_TIMEOUT = Integer.getInteger("minecraft.manifestTimeout", 1000 * 60 * 60); //1 hour, Timeout used for version_manifest.json so we dont ping their server every request.
                                                           //manifest doesn't include sha1'patterns so we use this for the per-version json as well.
     public static final String FORGE_MAVEN = "https://maven.minecraftforge.net/";
     public static final String MOJANG_MAVEN = "https://libraries.minecraft.net/";
@@ -176,14 +176,18 @@ public class Utils {
     }
 
     public static File updateDownload(Project project, File target, VersionJson.Download dl) throws IOException {
-        if (!target.exists() || !HashFunction.SHA1.hash(target).equals(dl.getSha1())) {
+        final FileHashCache hashes = FileHashCache.get(project);
+        if (dl.getSha1() == null || !dl.getSha1().equalsIgnoreCase(hashes.hash(target, HashFunction.SHA1))) {
             project.getLogger().lifecycle("Downloading: " + dl.getUrl());
 
             if (!target.getParentFile().exists()) {
                 target.getParentFile().mkdirs();
             }
 
-            FileUtils.copyURLToFile(dl.getUrl(), target);
+            FileDownloadingUtils.download(dl.getUrl(), target, dl.getSha1(), FileDownloadingUtils.RetryPolicy.DEFAULT);
+            if (dl.getSha1() != null) {
+                hashes.put(target, HashFunction.SHA1, dl.getSha1());
+            }
         }
         return target;
     }
@@ -192,11 +196,12 @@ public class Utils {
         updateHash(target, HashFunction.values());
     }
     public static void updateHash(File target, HashFunction... functions) throws IOException {
+        // Compute all hashes in a single read of the target
+        final Map<HashFunction, String> hashes = target.exists() ? HashFunction.hashAll(target.toPath(), functions) : Collections.emptyMap();
         for (HashFunction function : functions) {
             File cache = new File(target.getAbsolutePath() + "." + function.getExtension());
             if (target.exists()) {
-                String hash = function.hash(target);
-                Files.write(cache.toPath(), hash.getBytes());
+                Files.write(cache.toPath(), hashes.get(function).getBytes());
             } else if (cache.exists()) {
                 cache.delete();
             }
@@ -0,0 +1,158 @@
+package buildSrc.utils.decompile;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Collects the internal names of all classes a jar refers to, from the constant pools, member descriptors, signatures and annotations.
+ * The result is an over approximation, names which do not resolve to any class are simply ignored by the consumers.
+ */
+public final class ClassReferenceCollector extends ClassVisitor {
+
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+
+    private final Set<String> references;
+
+    private ClassReferenceCollector(final Set<String> references) {
+        super(Opcodes.ASM9);
+        this.references = references;
+    }
+
+    public static Set<String> collect(final File jar) throws IOException {
+        final Set<String> references = new HashSet<>();
+        final ClassReferenceCollector collector = new ClassReferenceCollector(references);
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class"))
+                    continue;
+
+                final ClassReader reader = new ClassReader(IOUtils.toByteArray(zip.getInputStream(entry)));
+                collector.visitConstantPool(reader);
+                reader.accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+            }
+        }
+        return references;
+    }
+
+    private void visitConstantPool(final ClassReader reader) {
+        final char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            final int offset = reader.getItem(i);
+            if (offset == 0)
+                continue; // second slot of a long or double
+
+            switch (reader.readByte(offset - 1)) {
+                case CONSTANT_CLASS:
+                    addType(reader.readUTF8(offset, buffer));
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    addDescriptor(reader.readUTF8(offset + 2, buffer));
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                    addDescriptor(reader.readUTF8(offset, buffer));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void addType(final String internalNameOrDescriptor) {
+        if (internalNameOrDescriptor.startsWith("[")) {
+            addDescriptor(internalNameOrDescriptor);
+        } else {
+            this.references.add(internalNameOrDescriptor);
+        }
+    }
+
+    /**
+     * Extracts every class name of a descriptor or generic signature.
+     */
+    private void addDescriptor(final String descriptor) {
+        if (descriptor == null)
+            return;
+
+        int index = 0;
+        while (index < descriptor.length()) {
+            if (descriptor.charAt(index) != 'L') {
+                index++;
+                continue;
+            }
+
+            int end = index + 1;
+            while (end < descriptor.length() && descriptor.charAt(end) != ';' && descriptor.charAt(end) != '<') {
+                end++;
+            }
+            if (end > index + 1) {
+                this.references.add(descriptor.substring(index + 1, end));
+            }
+            index = end + 1;
+        }
+    }
+
+    @Override
+    public void visit(final int version, final int access, final String name, final String signature, final String superName, final String[] interfaces) {
+        if (superName != null)
+            this.references.add(superName);
+        if (interfaces != null) {
+            for (final String anInterface : interfaces) {
+                this.references.add(anInterface);
+            }
+        }
+        addDescriptor(signature);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+        addDescriptor(descriptor);
+        return null;
+    }
+
+    @Override
+    public FieldVisitor visitField(final int access, final String name, final String descriptor, final String signature, final Object value) {
+        addDescriptor(descriptor);
+        addDescriptor(signature);
+        return new FieldVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+                addDescriptor(descriptor);
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(final int access, final String name, final String descriptor, final String signature, final String[] exceptions) {
+        addDescriptor(descriptor);
+        addDescriptor(signature);
+        if (exceptions != null) {
+            for (final String exception : exceptions) {
+                this.references.add(exception);
+            }
+        }
+        return new MethodVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+                addDescriptor(descriptor);
+                return null;
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(final int parameter, final String descriptor, final boolean visible) {
+                addDescriptor(descriptor);
+                return null;
+            }
+        };
+    }
+}
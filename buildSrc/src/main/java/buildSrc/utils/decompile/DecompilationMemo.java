@@ -0,0 +1,291 @@
+package buildSrc.utils.decompile;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+/**
+ * A persistent, content addressed store of decompiled classes.
+ *
+ * <p>Entries are keyed by the bytes of a top level class together with all of its inner classes, the decompiler options and the decompile classpath.
+ * As such an unchanged class in a new version can be served from the memo, instead of being decompiled again.</p>
+ */
+public final class DecompilationMemo {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecompilationMemo.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path directory;
+    private final byte[] fingerprint;
+
+    /**
+     * @param libraryHash The combined hash of the decompile classpath. The libraries drive type inference, so a different classpath may change the output.
+     */
+    public DecompilationMemo(final Path directory, final Map<String, ?> options, final String decompilerVersion, final String libraryHash) {
+        this.directory = directory;
+
+        // The thread count does not influence the output, so it is not part of the fingerprint.
+        final StringBuilder fingerprint = new StringBuilder().append(FORMAT_VERSION).append('\n').append(decompilerVersion).append('\n').append(libraryHash).append('\n');
+        new TreeMap<>(options).forEach((key, value) -> {
+            if (!IFernflowerPreferences.THREADS.equals(key)) {
+                fingerprint.append(key).append('=').append(value).append('\n');
+            }
+        });
+        this.fingerprint = fingerprint.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits the input jar into the classes which still need to be decompiled, and the classes which can be served from the memo.
+     *
+     * @param input The jar to decompile.
+     * @param pendingJar The jar which receives all classes which are missing from the memo, as well as all resources. This is the jar to decompile.
+     * @param contextJar The jar which receives all classes which are served from the memo. It should be added as a library to the decompiler.
+     * @return The session which tracks the decompilation of the pending classes.
+     */
+    public Session prepare(final File input, final File pendingJar, final File contextJar) throws IOException {
+        final Session session = new Session();
+
+        try (ZipFile zip = new ZipFile(input);
+             ZipOutputStream pending = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(pendingJar)));
+             ZipOutputStream context = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(contextJar)))) {
+            pending.setLevel(Deflater.BEST_SPEED);
+            context.setLevel(Deflater.BEST_SPEED);
+
+            final Set<String> classes = new HashSet<>();
+            final List<ZipEntry> resources = new ArrayList<>();
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory())
+                    continue;
+
+                if (entry.getName().endsWith(".class")) {
+                    classes.add(entry.getName().substring(0, entry.getName().length() - ".class".length()));
+                } else {
+                    resources.add(entry);
+                }
+            }
+
+            final Map<String, List<String>> nests = new TreeMap<>();
+            for (final String name : classes) {
+                nests.computeIfAbsent(getNestHost(name, classes), host -> new ArrayList<>()).add(name);
+            }
+
+            for (final Map.Entry<String, List<String>> nest : nests.entrySet()) {
+                final List<String> members = nest.getValue();
+                Collections.sort(members);
+
+                final MessageDigest digest = newDigest();
+                digest.update(this.fingerprint);
+                final List<byte[]> contents = new ArrayList<>(members.size());
+                for (final String member : members) {
+                    final byte[] data = IOUtils.toByteArray(zip.getInputStream(zip.getEntry(member + ".class")));
+                    digest.update(member.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(data);
+                    contents.add(data);
+                }
+                final String key = toHex(digest.digest());
+
+                final Entry cached = read(key);
+                final ZipOutputStream target;
+                if (cached != null && cached.getQualifiedName().equals(nest.getKey())) {
+                    session.hits.add(cached);
+                    target = context;
+                } else {
+                    session.pending.put(nest.getKey(), key);
+                    target = pending;
+                }
+
+                for (int i = 0; i < members.size(); i++) {
+                    target.putNextEntry(new ZipEntry(members.get(i) + ".class"));
+                    target.write(contents.get(i));
+                    target.closeEntry();
+                }
+            }
+
+            for (final ZipEntry resource : resources) {
+                pending.putNextEntry(new ZipEntry(resource.getName()));
+                IOUtils.copy(zip.getInputStream(resource), pending);
+                pending.closeEntry();
+            }
+        }
+
+        LOGGER.warn("Serving {} of {} classes from the decompilation memo", session.hits.size(), session.hits.size() + session.pending.size());
+        return session;
+    }
+
+    /**
+     * Determines the top level class which is decompiled together with the given class.
+     */
+    private static String getNestHost(final String name, final Set<String> classes) {
+        final int separator = name.indexOf('$', name.lastIndexOf('/') + 1);
+        if (separator > 0) {
+            final String outer = name.substring(0, separator);
+            if (classes.contains(outer)) {
+                return outer;
+            }
+        }
+        return name;
+    }
+
+    @Nullable
+    private Entry read(final String key) {
+        final Path file = getFile(key);
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FORMAT_VERSION)
+                return null;
+
+            final String qualifiedName = in.readUTF();
+            final String entryName = in.readUTF();
+            final int mappingLength = in.readInt();
+            int[] mapping = null;
+            if (mappingLength >= 0) {
+                mapping = new int[mappingLength];
+                for (int i = 0; i < mappingLength; i++) {
+                    mapping[i] = in.readInt();
+                }
+            }
+            final byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            return new Entry(qualifiedName, entryName, new String(content, StandardCharsets.UTF_8), mapping);
+        } catch (final IOException ex) {
+            LOGGER.warn("Ignoring unreadable decompilation memo entry {}", file, ex);
+            return null;
+        }
+    }
+
+    private void write(final String key, final Entry entry) throws IOException {
+        final Path file = getFile(key);
+        Files.createDirectories(file.getParent());
+
+        final Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(entry.getQualifiedName());
+                out.writeUTF(entry.getEntryName());
+                if (entry.getMapping() == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(entry.getMapping().length);
+                    for (final int line : entry.getMapping()) {
+                        out.writeInt(line);
+                    }
+                }
+                final byte[] content = entry.getContent().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(content.length);
+                out.write(content);
+            }
+
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path getFile(final String key) {
+        return this.directory.resolve(key.substring(0, 2)).resolve(key + ".bin");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // Never happens
+        }
+    }
+
+    private static String toHex(final byte[] data) {
+        final StringBuilder builder = new StringBuilder(data.length * 2);
+        for (final byte b : data) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Tracks a single decompilation run against the memo.
+     */
+    public final class Session {
+        private final List<Entry> hits = new ArrayList<>();
+        private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+        private Session() {
+        }
+
+        /**
+         * @return The classes which are served from the memo and still need to be written to the output.
+         */
+        public List<Entry> getHits() {
+            return Collections.unmodifiableList(this.hits);
+        }
+
+        /**
+         * Stores a freshly decompiled class in the memo. Classes which were served from the memo are ignored.
+         */
+        public void record(final String qualifiedName, final String entryName, final String content, @Nullable final int[] mapping) {
+            final String key = this.pending.remove(qualifiedName);
+            if (key == null)
+                return;
+
+            try {
+                write(key, new Entry(qualifiedName, entryName, content, mapping));
+            } catch (final IOException ex) {
+                LOGGER.warn("Failed to store {} in the decompilation memo", qualifiedName, ex);
+            }
+        }
+    }
+
+    public static final class Entry {
+        private final String qualifiedName;
+        private final String entryName;
+        private final String content;
+        @Nullable
+        private final int[] mapping;
+
+        private Entry(final String qualifiedName, final String entryName, final String content, @Nullable final int[] mapping) {
+            this.qualifiedName = qualifiedName;
+            this.entryName = entryName;
+            this.content = content;
+            this.mapping = mapping;
+        }
+
+        public String getQualifiedName() {
+            return qualifiedName;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        @Nullable
+        public int[] getMapping() {
+            return mapping;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package buildSrc.utils.decompile;
+
+import buildSrc.utils.HashFunction;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Keeps a {@link LibraryHeaderIndex} of every library of the decompile classpath, keyed by the hash of the library jar.
+ *
+ * <p>Instances live for as long as the worker process, which Gradle keeps alive and reuses for every version that is decompiled.
+ * As such a library which is shared between versions is hashed, indexed and mapped once, instead of once per version.
+ * The indices themselves are persisted, so later builds only need to map them.</p>
+ */
+public final class DecompilerLibraryCache {
+
+    private static final ConcurrentMap<Path, DecompilerLibraryCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final ConcurrentMap<FileState, String> hashes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<LibraryHeaderIndex>> indices = new ConcurrentHashMap<>();
+
+    private DecompilerLibraryCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    public static DecompilerLibraryCache get(final Path directory) {
+        return INSTANCES.computeIfAbsent(directory.toAbsolutePath(), DecompilerLibraryCache::new);
+    }
+
+    /**
+     * Gets the header indices of all libraries of the given classpath, building them if needed.
+     * Libraries which were not hashed yet are hashed in parallel first.
+     *
+     * @return The indices in classpath order, without the libraries which contain no classes.
+     */
+    public List<LibraryHeaderIndex> prepare(final Iterable<File> classpath) throws IOException {
+        hashAll(classpath);
+
+        final List<LibraryHeaderIndex> libraries = new ArrayList<>();
+        for (final File library : classpath) {
+            final LibraryHeaderIndex index = prepare(library);
+            if (index != null) {
+                libraries.add(index);
+            }
+        }
+        return libraries;
+    }
+
+    /**
+     * Gets the header index of the given library, building it if needed.
+     *
+     * @param library The library jar from the decompile classpath.
+     * @return The index, or {@code null} if the library contains no classes and can be skipped entirely.
+     */
+    @Nullable
+    public LibraryHeaderIndex prepare(final File library) throws IOException {
+        final String hash = hash(library);
+        try {
+            return this.indices.computeIfAbsent(hash, key -> {
+                try {
+                    return Optional.ofNullable(prepare(library, key));
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }).orElse(null);
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Computes the combined hash of the given classpath, in classpath order. The hashes of the single libraries are shared with {@link #prepare(File)}.
+     */
+    public String hash(final Iterable<File> classpath) throws IOException {
+        hashAll(classpath);
+
+        final StringBuilder hashes = new StringBuilder();
+        for (final File library : classpath) {
+            hashes.append(library.getName()).append('=').append(hash(library)).append('\n');
+        }
+        return HashFunction.SHA1.hash(hashes.toString());
+    }
+
+    private void hashAll(final Iterable<File> classpath) throws IOException {
+        final Map<Path, FileState> missing = new LinkedHashMap<>();
+        for (final File library : classpath) {
+            final FileState state = FileState.of(library.toPath());
+            if (!this.hashes.containsKey(state)) {
+                missing.put(library.toPath(), state);
+            }
+        }
+        if (missing.isEmpty())
+            return;
+
+        for (final Map.Entry<Path, Map<HashFunction, String>> hashed : HashFunction.hashAll(missing.keySet(), HashFunction.SHA1).entrySet()) {
+            this.hashes.put(missing.get(hashed.getKey()), hashed.getValue().get(HashFunction.SHA1));
+        }
+    }
+
+    private String hash(final File library) throws IOException {
+        final FileState state = FileState.of(library.toPath());
+        String hash = this.hashes.get(state);
+        if (hash == null) {
+            hash = HashFunction.SHA1.hash(library);
+            this.hashes.put(state, hash);
+        }
+        return hash;
+    }
+
+    @Nullable
+    private LibraryHeaderIndex prepare(final File library, final String hash) throws IOException {
+        final Path target = this.directory.resolve(hash + ".idx");
+        final Path empty = this.directory.resolve(hash + ".empty");
+        if (Files.exists(empty))
+            return null;
+        if (Files.isRegularFile(target)) {
+            try {
+                return LibraryHeaderIndex.open(target);
+            } catch (final IOException ignored) {
+                // Outdated or damaged, rebuild it below
+            }
+        }
+
+        Files.createDirectories(this.directory);
+        final Path temp = Files.createTempFile(this.directory, hash, ".tmp");
+        try {
+            if (LibraryHeaderIndex.write(library, temp) == 0) {
+                Files.createFile(empty);
+                return null;
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return LibraryHeaderIndex.open(target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static void writeStored(final ZipOutputStream out, final String name, final byte[] data) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+
+        final ZipEntry stored = new ZipEntry(name);
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(data.length);
+        stored.setCompressedSize(data.length);
+        stored.setCrc(crc.getValue());
+        out.putNextEntry(stored);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static final class FileState {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private FileState(final Path path, final long size, final long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileState of(final Path path) throws IOException {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileState(path.toAbsolutePath(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final FileState that = (FileState) o;
+            return size == that.size && lastModified == that.lastModified && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package buildSrc.utils.decompile;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A memory mapped index of the class headers of a single library jar.
+ *
+ * <p>For every class the index holds its name, access flags, super class and interfaces, together with a copy of the class
+ * which has all code and debug information stripped. The stripped class still declares every field and method with its descriptor,
+ * signature and annotations, which is all the decompiler needs from a library.</p>
+ *
+ * <p>The file layout is:</p>
+ * <pre>
+ * int magic, int version, int classCount
+ * classCount times: name, int access, superName, int interfaceCount, interfaceCount times: interface, int dataOffset, int dataLength
+ * the stripped class data, offsets are relative to the end of the table
+ * </pre>
+ * <p>Strings are stored as an int length followed by their UTF-8 bytes, an empty string represents a missing super class.</p>
+ */
+public final class LibraryHeaderIndex {
+
+    private static final int MAGIC = 0x4D534C49;
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> classes;
+    private final int dataStart;
+
+    private LibraryHeaderIndex(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            throw new IOException("Not a library header index, or an outdated one");
+
+        final int count = buffer.getInt();
+        this.classes = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            final int position = buffer.position();
+            this.classes.put(readString(buffer), position);
+            buffer.getInt(); // access
+            readString(buffer); // super
+            final int interfaces = buffer.getInt();
+            for (int j = 0; j < interfaces; j++) {
+                readString(buffer);
+            }
+            buffer.getInt(); // offset
+            buffer.getInt(); // length
+        }
+        this.dataStart = buffer.position();
+    }
+
+    public static LibraryHeaderIndex open(final Path index) throws IOException {
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new LibraryHeaderIndex(buffer);
+        }
+    }
+
+    /**
+     * Builds the index for the given library jar.
+     *
+     * @return The amount of classes in the index.
+     */
+    public static int write(final File library, final Path index) throws IOException {
+        final ByteArrayOutputStream table = new ByteArrayOutputStream();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final DataOutputStream tableOut = new DataOutputStream(table);
+        int count = 0;
+
+        try (ZipFile zip = new ZipFile(library)) {
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/"))
+                    continue;
+
+                final ClassReader reader = new ClassReader(IOUtils.toByteArray(zip.getInputStream(entry)));
+                final ClassWriter writer = new ClassWriter(0);
+                reader.accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                final byte[] stripped = writer.toByteArray();
+
+                writeString(tableOut, reader.getClassName());
+                tableOut.writeInt(reader.getAccess());
+                writeString(tableOut, reader.getSuperName() == null ? "" : reader.getSuperName());
+                tableOut.writeInt(reader.getInterfaces().length);
+                for (final String anInterface : reader.getInterfaces()) {
+                    writeString(tableOut, anInterface);
+                }
+                tableOut.writeInt(data.size());
+                tableOut.writeInt(stripped.length);
+                data.write(stripped);
+                count++;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            table.writeTo(out);
+            data.writeTo(out);
+        }
+        return count;
+    }
+
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(this.classes.keySet());
+    }
+
+    public boolean contains(final String className) {
+        return this.classes.containsKey(className);
+    }
+
+    public int getAccess(final String className) {
+        final ByteBuffer header = header(className);
+        return header.getInt();
+    }
+
+    @Nullable
+    public String getSuperName(final String className) {
+        final ByteBuffer header = header(className);
+        header.getInt();
+        final String superName = readString(header);
+        return superName.isEmpty() ? null : superName;
+    }
+
+    public String[] getInterfaces(final String className) {
+        final ByteBuffer header = header(className);
+        header.getInt();
+        readString(header);
+        final String[] interfaces = new String[header.getInt()];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = readString(header);
+        }
+        return interfaces;
+    }
+
+    /**
+     * @return The class file of the given class, without any code or debug information.
+     */
+    public byte[] getStrippedClass(final String className) {
+        final ByteBuffer header = header(className);
+        header.getInt();
+        readString(header);
+        final int interfaces = header.getInt();
+        for (int i = 0; i < interfaces; i++) {
+            readString(header);
+        }
+        final int offset = header.getInt();
+        final byte[] result = new byte[header.getInt()];
+        final ByteBuffer data = this.buffer.duplicate();
+        data.position(this.dataStart + offset);
+        data.get(result);
+        return result;
+    }
+
+    /**
+     * Positions a private view of the index directly after the name of the given class.
+     */
+    private ByteBuffer header(final String className) {
+        final Integer position = this.classes.get(className);
+        if (position == null)
+            throw new IllegalArgumentException("Unknown class: " + className);
+
+        final ByteBuffer header = this.buffer.duplicate();
+        header.position(position);
+        header.position(position + 4 + header.getInt());
+        return header;
+    }
+
+    /**
+     * Writes a jar with the stripped classes the decompiler needs to resolve the given references.
+     * These are the referenced classes, together with their super types and outer classes.
+     * When multiple libraries contain the same class, the first one wins, just like on a classpath.
+     *
+     * @return The amount of classes written.
+     */
+    public static int writeClasspathJar(final List<LibraryHeaderIndex> libraries, final Set<String> references, final File target) throws IOException {
+        final Map<String, LibraryHeaderIndex> owners = new HashMap<>();
+        for (final LibraryHeaderIndex library : libraries) {
+            for (final String className : library.getClassNames()) {
+                owners.putIfAbsent(className, library);
+            }
+        }
+
+        final Set<String> required = new TreeSet<>();
+        final Deque<String> queue = new ArrayDeque<>(references);
+        while (!queue.isEmpty()) {
+            final String className = queue.pop();
+            final LibraryHeaderIndex owner = owners.get(className);
+            if (owner == null || !required.add(className))
+                continue;
+
+            final String superName = owner.getSuperName(className);
+            if (superName != null)
+                queue.push(superName);
+            Collections.addAll(queue, owner.getInterfaces(className));
+
+            final int separator = className.lastIndexOf('$');
+            if (separator > 0)
+                queue.push(className.substring(0, separator));
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            for (final String className : required) {
+                DecompilerLibraryCache.writeStored(out, className + ".class", owners.get(className).getStrippedClass(className));
+            }
+        }
+        return required.size();
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
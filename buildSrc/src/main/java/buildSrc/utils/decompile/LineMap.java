@@ -0,0 +1,78 @@
+package buildSrc.utils.decompile;
+
+import java.util.Arrays;
+
+/**
+ * The line mapping of a single class, as two parallel arrays of bytecode lines and source lines sorted by bytecode line.
+ */
+public final class LineMap {
+
+    private final int[] lines;
+    private final int[] mapped;
+
+    LineMap(final int[] lines, final int[] mapped) {
+        this.lines = lines;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Creates a line map from the mapping emitted by the decompiler.
+     *
+     * @param mapping Pairs of bytecode line and source line, in any order. A later pair for the same bytecode line wins.
+     * @return The line map.
+     */
+    public static LineMap of(final int[] mapping) {
+        final int pairs = mapping.length / 2;
+        final long[] packed = new long[pairs];
+        for (int i = 0; i < pairs; i++) {
+            // The index breaks ties, so the last pair of a line sorts last
+            packed[i] = ((long) mapping[i * 2] << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        final int[] lines = new int[pairs];
+        final int[] mapped = new int[pairs];
+        int size = 0;
+        for (final long entry : packed) {
+            final int line = (int) (entry >> 32);
+            final int value = mapping[(int) entry * 2 + 1];
+            if (size > 0 && lines[size - 1] == line) {
+                mapped[size - 1] = value;
+            } else {
+                lines[size] = line;
+                mapped[size] = value;
+                size++;
+            }
+        }
+        return new LineMap(Arrays.copyOf(lines, size), Arrays.copyOf(mapped, size));
+    }
+
+    public int size() {
+        return this.lines.length;
+    }
+
+    int getLine(final int index) {
+        return this.lines[index];
+    }
+
+    int getMapped(final int index) {
+        return this.mapped[index];
+    }
+
+    /**
+     * Maps a bytecode line to its source line. Lines without an exact mapping use the mapping of the next higher line,
+     * lines past the last mapping are kept as is.
+     *
+     * @param line The bytecode line.
+     * @return The source line.
+     */
+    public int map(final int line) {
+        final int index = Arrays.binarySearch(this.lines, line);
+        if (index >= 0) {
+            return this.mapped[index];
+        }
+
+        final int higher = -index - 1;
+        return higher < this.lines.length ? this.mapped[higher] : line;
+    }
+}
@@ -1,44 +1,86 @@
 package buildSrc.utils.decompile;
 
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.java.decompiler.main.decompiler.SingleFileSaver;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/**
+ * Saves the decompiled sources, and collects the line mapping of every class so it can be applied in a separate stage.
+ *
+ * <p>Classes are buffered until the archive is closed and then written sorted by entry name,
+ * so the output does not depend on the decompiler threads or on which classes were served from the memo.</p>
+ */
 public class LineMappingResultSaver extends SingleFileSaver {
-    private static final Logger LOGGER = LoggerFactory.getLogger(LineMappingResultSaver.class);
 
-    private final String source;
-    final FernFlowerByteCodeProvider bytecodeProvider;
+    private final Map<String, int[]> mappings = new ConcurrentHashMap<>();
+    private final Map<String, ClassEntry> classes = new ConcurrentSkipListMap<>();
+    @Nullable
+    private final DecompilationMemo.Session memoSession;
 
-    public LineMappingResultSaver(final String source, final File target, final FernFlowerByteCodeProvider bytecodeProvider) {
+    public LineMappingResultSaver(final File target) {
+        this(target, null);
+    }
+
+    public LineMappingResultSaver(final File target, @Nullable final DecompilationMemo.Session memoSession) {
         super(target);
-        this.source = source;
-        this.bytecodeProvider = bytecodeProvider;
+        this.memoSession = memoSession;
+    }
+
+    /**
+     * @return The line mapping of every saved class, keyed by the internal name of the class.
+     */
+    public Map<String, int[]> getMappings() {
+        return Collections.unmodifiableMap(this.mappings);
+    }
+
+    @Override
+    public void closeArchive(final String path, final String archiveName) {
+        if (this.memoSession != null) {
+            // Classes served from the memo were never given to the decompiler, add them before the archive is closed.
+            for (final DecompilationMemo.Entry entry : this.memoSession.getHits()) {
+                this.saveClassEntry(path, archiveName, entry.getQualifiedName(), entry.getEntryName(), entry.getContent(), entry.getMapping());
+            }
+        }
+        for (final ClassEntry entry : this.classes.values()) {
+            super.saveClassEntry(path, archiveName, entry.qualifiedName, entry.entryName, entry.content, entry.mapping);
+        }
+        this.classes.clear();
+        super.closeArchive(path, archiveName);
     }
 
     @Override
     public void saveClassEntry(
             final String path, final String archiveName, final String qualifiedName, final String entryName, final String content, final int[] mapping
     ) {
-        super.saveClassEntry(path, archiveName, qualifiedName, entryName, content, mapping);
+        if (content == null)
+            return;
+
+        this.classes.put(entryName, new ClassEntry(qualifiedName, entryName, content, mapping));
+        if (this.memoSession != null) {
+            this.memoSession.record(qualifiedName, entryName, content, mapping);
+        }
         if (mapping != null) {
-            // Get the input archive name
-            try {
-                final String inputName = qualifiedName + ".class";
-                final byte[] clazz = this.bytecodeProvider.getBytecode(this.source, inputName);
-                final ClassReader reader = new ClassReader(clazz);
-                final ClassWriter output = new ClassWriter(reader, 0);
-                reader.accept(new LineMappingVisitor(output, mapping), 0);
-                // Find the entry, then modify it? if possible?
-                this.bytecodeProvider.setBytecode(this.source, inputName, output.toByteArray());
-            } catch (final IOException ex) {
-                LineMappingResultSaver.LOGGER.warn("Line mapping failed on {} in {}", entryName, archiveName, ex);
-            }
+            this.mappings.put(qualifiedName, mapping);
+        }
+    }
+
+    private static final class ClassEntry {
+        private final String qualifiedName;
+        private final String entryName;
+        private final String content;
+        @Nullable
+        private final int[] mapping;
+
+        private ClassEntry(final String qualifiedName, final String entryName, final String content, @Nullable final int[] mapping) {
+            this.qualifiedName = qualifiedName;
+            this.entryName = entryName;
+            this.content = content;
+            this.mapping = mapping;
         }
     }
 }
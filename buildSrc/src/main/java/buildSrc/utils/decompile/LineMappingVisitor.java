@@ -5,18 +5,16 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
-import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
-
 public class LineMappingVisitor extends ClassVisitor {
-    private final NavigableMap<Integer, Integer> lineMapping = new TreeMap<>();
+    private final LineMap lineMapping;
 
     public LineMappingVisitor(final ClassVisitor parent, final int[] mapping) {
+        this(parent, LineMap.of(mapping));
+    }
+
+    public LineMappingVisitor(final ClassVisitor parent, final LineMap lineMapping) {
         super(Opcodes.ASM9, parent); // todo: common version constant
-        for (int i = 0; i < mapping.length; i += 2) {
-            this.lineMapping.put(mapping[i], mapping[i + 1]);
-        }
+        this.lineMapping = lineMapping;
     }
 
     @Override
@@ -27,22 +25,15 @@ public class LineMappingVisitor extends ClassVisitor {
     }
 
     static class MethodLineFixer extends MethodVisitor {
-        private final NavigableMap<Integer, Integer> lineMapping;
-        MethodLineFixer(final MethodVisitor parent, final NavigableMap<Integer, Integer> lineMapping) {
+        private final LineMap lineMapping;
+        MethodLineFixer(final MethodVisitor parent, final LineMap lineMapping) {
             super(Opcodes.ASM9, parent);
             this.lineMapping = lineMapping;
         }
 
         @Override
         public void visitLineNumber(final int line, final Label start) {
-            Integer mapped = this.lineMapping.get(line);
-            if (mapped == null) {
-                final Map.Entry<Integer, Integer> entry = this.lineMapping.higherEntry(line);
-                if (entry != null) {
-                    mapped = entry.getValue();
-                }
-            }
-            super.visitLineNumber(mapped != null ? mapped : line, start);
+            super.visitLineNumber(this.lineMapping.map(line), start);
         }
     }
 }
@@ -0,0 +1,181 @@
+package buildSrc.utils.decompile;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A memory mapped line map sidecar, which maps the bytecode lines of every class to the lines of its decompiled source.
+ *
+ * <p>The file starts with a header of magic, version and class count. It is followed by a table with one row per
+ * class, sorted by class name, which holds the offset and length of the name and the offset and size of its mapping.
+ * Names are stored as UTF-16 chars, so lookups compare them in place. Each mapping is stored as a sorted array of
+ * bytecode lines, followed by the array of source lines, so both levels are binary searched without allocation.</p>
+ */
+public final class LineMappings {
+
+    private static final int MAGIC = 0x4C4D4150;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int ROW_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private LineMappings(final ByteBuffer buffer, final int count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    public static LineMappings open(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("Not a line map, or an outdated one: " + path);
+
+            return new LineMappings(buffer, buffer.getInt(8));
+        }
+    }
+
+    /**
+     * Writes the line maps of the given classes.
+     *
+     * @param mappings The mappings emitted by the decompiler, keyed by internal class name.
+     * @param file The file to write.
+     */
+    public static void write(final Map<String, int[]> mappings, final File file) throws IOException {
+        final List<String> names = new ArrayList<>();
+        final List<LineMap> maps = new ArrayList<>();
+        for (final Map.Entry<String, int[]> entry : new TreeMap<>(mappings).entrySet()) {
+            names.add(entry.getKey());
+            maps.add(LineMap.of(entry.getValue()));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+
+            int nameOffset = HEADER_SIZE + names.size() * ROW_SIZE;
+            int dataOffset = nameOffset;
+            for (final String name : names) {
+                dataOffset += name.length() * 2;
+            }
+            for (int i = 0; i < names.size(); i++) {
+                out.writeInt(nameOffset);
+                out.writeInt(names.get(i).length());
+                out.writeInt(dataOffset);
+                out.writeInt(maps.get(i).size());
+                nameOffset += names.get(i).length() * 2;
+                dataOffset += maps.get(i).size() * 8;
+            }
+            for (final String name : names) {
+                out.writeChars(name);
+            }
+            for (final LineMap map : maps) {
+                for (int i = 0; i < map.size(); i++) {
+                    out.writeInt(map.getLine(i));
+                }
+                for (int i = 0; i < map.size(); i++) {
+                    out.writeInt(map.getMapped(i));
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return The row of the given class, or a negative value if the class has no line map.
+     */
+    public int indexOf(final String className) {
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int compared = this.compareName(middle, className);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps a bytecode line of a class to its source line, see {@link LineMap#map(int)}.
+     * Lines of classes without a line map are kept as is.
+     */
+    public int map(final String className, final int line) {
+        final int index = this.indexOf(className);
+        return index < 0 ? line : this.map(index, line);
+    }
+
+    public int map(final int index, final int line) {
+        final int row = HEADER_SIZE + index * ROW_SIZE;
+        final int data = this.buffer.getInt(row + 8);
+        final int pairs = this.buffer.getInt(row + 12);
+
+        int low = 0;
+        int high = pairs - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int current = this.buffer.getInt(data + middle * 4);
+            if (current < line) {
+                low = middle + 1;
+            } else if (current > line) {
+                high = middle - 1;
+            } else {
+                return this.buffer.getInt(data + (pairs + middle) * 4);
+            }
+        }
+        return low < pairs ? this.buffer.getInt(data + (pairs + low) * 4) : line;
+    }
+
+    /**
+     * @return A copy of the line map of the given class, or null if the class has none.
+     */
+    @Nullable
+    public LineMap get(final String className) {
+        final int index = this.indexOf(className);
+        if (index < 0)
+            return null;
+
+        final int row = HEADER_SIZE + index * ROW_SIZE;
+        final int data = this.buffer.getInt(row + 8);
+        final int pairs = this.buffer.getInt(row + 12);
+        final int[] lines = new int[pairs];
+        final int[] mapped = new int[pairs];
+        for (int i = 0; i < pairs; i++) {
+            lines[i] = this.buffer.getInt(data + i * 4);
+            mapped[i] = this.buffer.getInt(data + (pairs + i) * 4);
+        }
+        return new LineMap(lines, mapped);
+    }
+
+    private int compareName(final int index, final String className) {
+        final int row = HEADER_SIZE + index * ROW_SIZE;
+        final int offset = this.buffer.getInt(row);
+        final int length = this.buffer.getInt(row + 4);
+        final int shared = Math.min(length, className.length());
+        for (int i = 0; i < shared; i++) {
+            final int compared = this.buffer.getChar(offset + i * 2) - className.charAt(i);
+            if (compared != 0)
+                return compared;
+        }
+        return length - className.length();
+    }
+}
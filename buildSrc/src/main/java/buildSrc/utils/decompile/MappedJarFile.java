@@ -0,0 +1,172 @@
+package buildSrc.utils.decompile;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read only view of a jar, backed by a memory mapping of the entire file.
+ *
+ * <p>The central directory is indexed once when the jar is opened, afterwards entries are read by slicing the mapping directly.
+ * Reads do not share any mutable state, so any amount of threads can read from the same instance concurrently without locking.</p>
+ */
+public final class MappedJarFile {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    private MappedJarFile(final Path path, final ByteBuffer buffer, final Map<String, Entry> entries) {
+        this.path = path;
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    public static MappedJarFile open(final Path path) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new ZipException("Jar is too large to be mapped: " + path);
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        final int end = findEndOfCentralDirectory(buffer, path);
+        final int count = buffer.getShort(end + 10) & 0xFFFF;
+        final long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL)
+            throw new ZipException("Zip64 jars are not supported: " + path);
+
+        final Map<String, Entry> entries = new LinkedHashMap<>(count * 2);
+        int offset = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(offset) != CENTRAL_HEADER_SIGNATURE)
+                throw new ZipException("Invalid central directory header in: " + path);
+
+            final int method = buffer.getShort(offset + 10) & 0xFFFF;
+            final long compressedSize = buffer.getInt(offset + 20) & 0xFFFFFFFFL;
+            final long size = buffer.getInt(offset + 24) & 0xFFFFFFFFL;
+            final int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+            final int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+            final int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+            final long localHeaderOffset = buffer.getInt(offset + 42) & 0xFFFFFFFFL;
+
+            final byte[] name = new byte[nameLength];
+            final ByteBuffer nameView = buffer.duplicate();
+            nameView.position(offset + CENTRAL_HEADER_SIZE);
+            nameView.get(name);
+
+            entries.put(new String(name, StandardCharsets.UTF_8), new Entry(method, (int) compressedSize, (int) size, (int) localHeaderOffset));
+            offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return new MappedJarFile(path, buffer, Collections.unmodifiableMap(entries));
+    }
+
+    private static int findEndOfCentralDirectory(final ByteBuffer buffer, final Path path) throws ZipException {
+        final int minimum = Math.max(0, buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF);
+        for (int offset = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; offset >= minimum; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                return offset;
+        }
+        throw new ZipException("Could not find the end of the central directory in: " + path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The names of all entries, in the order of the central directory.
+     */
+    public Set<String> getEntryNames() {
+        return this.entries.keySet();
+    }
+
+    /**
+     * Reads the uncompressed contents of an entry.
+     *
+     * @return The contents, or {@code null} if the jar has no such entry.
+     */
+    @Nullable
+    public byte[] read(final String name) throws IOException {
+        final Entry entry = this.entries.get(name);
+        if (entry == null)
+            return null;
+
+        final int local = entry.localHeaderOffset;
+        if (this.buffer.getInt(local) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException("Invalid local header for " + name + " in: " + this.path);
+
+        // The sizes in the local header may be deferred to a data descriptor, so only its name and extra lengths are used
+        final int dataOffset = local + LOCAL_HEADER_SIZE + (this.buffer.getShort(local + 26) & 0xFFFF) + (this.buffer.getShort(local + 28) & 0xFFFF);
+        final byte[] compressed = new byte[entry.compressedSize];
+        final ByteBuffer view = this.buffer.duplicate();
+        view.position(dataOffset);
+        view.get(compressed);
+
+        switch (entry.method) {
+            case STORED:
+                return compressed;
+            case DEFLATED:
+                return inflate(name, compressed, entry.size);
+            default:
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + name + " in: " + this.path);
+        }
+    }
+
+    private byte[] inflate(final String name, final byte[] compressed, final int size) throws ZipException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            final byte[] result = new byte[size];
+            int read = 0;
+            while (read < size) {
+                final int inflated = inflater.inflate(result, read, size - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                read += inflated;
+            }
+            if (read != size)
+                throw new ZipException("Truncated entry " + name + " in: " + this.path);
+            return result;
+        } catch (final DataFormatException ex) {
+            throw new ZipException("Corrupt entry " + name + " in: " + this.path + ": " + ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Entry {
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        private Entry(final int method, final int compressedSize, final int size, final int localHeaderOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
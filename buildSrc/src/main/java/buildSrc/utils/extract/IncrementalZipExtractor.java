@@ -0,0 +1,273 @@
+package buildSrc.utils.extract;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a zip into a directory, and only touches the files which changed since the last extraction into that directory.
+ *
+ * <p>A manifest of every written file, with the size and CRC32 of its zip entry, is persisted after each extraction.
+ * Entries whose size and CRC match the manifest, and whose file still has the expected size, are skipped without reading
+ * either side. Changed entries are written in parallel, and files which are in the manifest but no longer in the zip are deleted.
+ * Without a valid manifest all entries are written, and the directories which receive entries are scanned once for files to delete.</p>
+ */
+public final class IncrementalZipExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalZipExtractor.class);
+
+    private static final int MAGIC = 0x5A58544D;
+    private static final int VERSION = 1;
+
+    private final File manifestFile;
+
+    public IncrementalZipExtractor(final File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    public Result extract(final File source, final File target) throws IOException {
+        return this.extract(source, target, name -> name);
+    }
+
+    /**
+     * @param source The zip to extract.
+     * @param target The directory to extract into.
+     * @param renamer Maps an entry name to the path of its file, relative to the target. Entries mapped to null are skipped.
+     * @return The files which were written and deleted, relative to the target.
+     */
+    public Result extract(final File source, final File target, final Function<String, String> renamer) throws IOException {
+        final Path root = target.toPath().toAbsolutePath().normalize();
+        @Nullable final Map<String, Record> previous = this.readManifest(root);
+        // Forget the old manifest before touching any file, so an interrupted extraction can not leave a stale manifest behind.
+        Files.deleteIfExists(this.manifestFile.toPath());
+
+        try (ZipFile zip = new ZipFile(source)) {
+            final Map<String, Record> current = new TreeMap<>();
+            final Map<String, ZipEntry> changed = new TreeMap<>();
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory())
+                    continue;
+
+                final String name = renamer.apply(entry.getName());
+                if (name == null)
+                    continue;
+
+                final Record record = new Record(entry.getSize(), entry.getCrc());
+                current.put(name, record);
+
+                final Record known = previous == null ? null : previous.get(name);
+                if (known == null || !known.equals(record) || record.size < 0 || !hasSize(root.resolve(name), record.size)) {
+                    changed.put(name, entry);
+                }
+            }
+
+            final List<String> deleted = previous != null
+                    ? previous.keySet().stream().filter(name -> !current.containsKey(name)).collect(Collectors.toList())
+                    : scan(root, current.keySet()).stream().filter(name -> !current.containsKey(name)).collect(Collectors.toList());
+
+            changed.entrySet().parallelStream().forEach(change -> {
+                final Path out = root.resolve(change.getKey());
+                try {
+                    Files.createDirectories(out.getParent());
+                    try (InputStream stream = zip.getInputStream(change.getValue())) {
+                        Files.copy(stream, out, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (final IOException e) {
+                    throw new UncheckedIOException("Failed to extract " + change.getValue().getName() + " to " + out, e);
+                }
+            });
+
+            for (final String name : deleted) {
+                final Path file = root.resolve(name);
+                Files.deleteIfExists(file);
+                deleteEmptyParents(root, file.getParent());
+            }
+
+            this.writeManifest(root, current);
+            LOGGER.warn("Extracted {}: {} written, {} deleted, {} unchanged", source.getName(), changed.size(), deleted.size(), current.size() - changed.size());
+            return new Result(new ArrayList<>(changed.keySet()), deleted, previous != null, current);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean hasSize(final Path file, final long size) {
+        try {
+            return Files.isRegularFile(file) && Files.size(file) == size;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lists the files below the top level directories which receive entries. Files directly in the root are never listed,
+     * so a target which is shared with other files, like the project directory, is not wiped.
+     */
+    private static List<String> scan(final Path root, final Set<String> names) throws IOException {
+        final Set<String> directories = new TreeSet<>();
+        for (final String name : names) {
+            final int separator = name.indexOf('/');
+            if (separator > 0) {
+                directories.add(name.substring(0, separator));
+            }
+        }
+
+        final List<String> files = new ArrayList<>();
+        for (final String directory : directories) {
+            final Path path = root.resolve(directory);
+            if (!Files.isDirectory(path))
+                continue;
+
+            try (Stream<Path> walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile)
+                        .map(file -> root.relativize(file).toString().replace(File.separatorChar, '/'))
+                        .forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    private static void deleteEmptyParents(final Path root, @Nullable Path directory) throws IOException {
+        while (directory != null && !directory.equals(root) && directory.startsWith(root)) {
+            try (Stream<Path> children = Files.list(directory)) {
+                if (children.findAny().isPresent())
+                    return;
+            } catch (final NoSuchFileException e) {
+                directory = directory.getParent();
+                continue;
+            }
+            Files.delete(directory);
+            directory = directory.getParent();
+        }
+    }
+
+    @Nullable
+    private Map<String, Record> readManifest(final Path root) {
+        if (!this.manifestFile.exists())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.manifestFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.toString()))
+                return null;
+
+            final int count = in.readInt();
+            final Map<String, Record> records = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                records.put(in.readUTF(), new Record(in.readLong(), in.readLong()));
+            }
+            return records;
+        } catch (final IOException e) {
+            LOGGER.warn("Ignoring the unreadable extraction manifest " + this.manifestFile, e);
+            return null;
+        }
+    }
+
+    private void writeManifest(final Path root, final Map<String, Record> records) throws IOException {
+        final Path manifest = this.manifestFile.toPath();
+        Files.createDirectories(manifest.toAbsolutePath().getParent());
+
+        final Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.toString());
+            out.writeInt(records.size());
+            for (final Map.Entry<String, Record> entry : records.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().crc);
+            }
+        }
+
+        try {
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The outcome of an extraction, with paths relative to the target directory.
+     */
+    public static final class Result {
+        private final List<String> written;
+        private final List<String> deleted;
+        private final boolean incremental;
+        private final Map<String, Record> records;
+
+        Result(final List<String> written, final List<String> deleted, final boolean incremental, final Map<String, Record> records) {
+            this.written = Collections.unmodifiableList(written);
+            this.deleted = Collections.unmodifiableList(deleted);
+            this.incremental = incremental;
+            this.records = records;
+        }
+
+        public List<String> getWritten() {
+            return this.written;
+        }
+
+        public List<String> getDeleted() {
+            return this.deleted;
+        }
+
+        /**
+         * @return Whether the changes were computed against the manifest of the previous extraction. Otherwise the deletions
+         * only cover the directories which received entries, and files elsewhere may be stale.
+         */
+        public boolean isIncremental() {
+            return this.incremental;
+        }
+
+        /**
+         * @return The uncompressed size of the zip entry the file was extracted from, or -1 if the file is not part of the extraction.
+         */
+        public long getSize(final String name) {
+            final Record record = this.records.get(name);
+            return record == null ? -1 : record.size;
+        }
+
+        /**
+         * @return The CRC32 of the zip entry the file was extracted from, or -1 if the file is not part of the extraction.
+         */
+        public long getCrc(final String name) {
+            final Record record = this.records.get(name);
+            return record == null ? -1 : record.crc;
+        }
+    }
+
+    private static final class Record {
+        private final long size;
+        private final long crc;
+
+        private Record(final long size, final long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Record)) return false;
+            final Record record = (Record) o;
+            return this.size == record.size && this.crc == record.crc;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.size, this.crc);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package buildSrc.utils.extract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether an entry of a decompiled jar is a source file or a resource, based on Ant style include patterns.
+ *
+ * <p>Patterns use {@code /} as separator, {@code *} and {@code ?} never match across directories and {@code **} matches
+ * any number of directories, like the include patterns of a Gradle file tree.</p>
+ */
+public final class SourceRouter {
+
+    /**
+     * The patterns of the entries of a game jar which are resources, everything else is a source file.
+     */
+    public static final List<String> DEFAULT_RESOURCE_PATTERNS = Collections.unmodifiableList(Arrays.asList("assets/**", "data/**", "META-INF/**", "*.*"));
+
+    private final List<Pattern> resourcePatterns = new ArrayList<>();
+
+    public SourceRouter(final Collection<String> resourcePatterns) {
+        for (final String pattern : resourcePatterns) {
+            this.resourcePatterns.add(compile(pattern));
+        }
+    }
+
+    public boolean isResource(final String entryName) {
+        for (final Pattern pattern : this.resourcePatterns) {
+            if (pattern.matcher(entryName).matches())
+                return true;
+        }
+        return false;
+    }
+
+    private static Pattern compile(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    i++;
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                        i++;
+                        regex.append("(?:.*/)?");
+                    } else {
+                        regex.append(".*");
+                    }
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,126 @@
+package buildSrc.utils.git;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the blob ids of committed files by their path and {@link BlobKey}, so content which was committed before
+ * is neither read nor hashed again.
+ *
+ * <p>Only the most recent blobs of each path are kept, which covers files that flip between a few states across
+ * versions without letting the cache grow with the history. The cache is loaded once and written back atomically.</p>
+ */
+public final class BlobCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobCache.class);
+
+    private static final int MAGIC = 0x424C4243;
+    private static final int VERSION = 1;
+    private static final int ENTRIES_PER_PATH = 4;
+
+    private final File file;
+    private final Map<String, LinkedHashMap<BlobKey, ObjectId>> entries = new HashMap<>();
+    private boolean dirty;
+
+    private BlobCache(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the cache which is kept in the git directory of a repository, so it goes away together with the objects it points to.
+     */
+    public static BlobCache forRepository(final File gitDirectory) {
+        return load(new File(gitDirectory, "minecraft-blobs"));
+    }
+
+    /**
+     * Loads the cache from the given file. A missing or unreadable file yields an empty cache.
+     */
+    public static BlobCache load(final File file) {
+        final BlobCache cache = new BlobCache(file);
+        if (!file.exists())
+            return cache;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return cache;
+
+            final byte[] id = new byte[20];
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = in.readUTF();
+                final BlobKey key = new BlobKey(in.readLong(), in.readLong());
+                in.readFully(id);
+                cache.bucket(path).put(key, ObjectId.fromRaw(id));
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Ignoring the unreadable blob cache " + file, e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    @Nullable
+    public synchronized ObjectId get(final String path, final BlobKey key) {
+        final LinkedHashMap<BlobKey, ObjectId> bucket = this.entries.get(path);
+        return bucket == null ? null : bucket.get(key);
+    }
+
+    public synchronized void put(final String path, final BlobKey key, final ObjectId blob) {
+        if (!blob.equals(this.bucket(path).put(key, blob.copy()))) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Writes the cache back, if it changed since it was loaded.
+     */
+    public synchronized void save() throws IOException {
+        if (!this.dirty)
+            return;
+
+        final Path target = this.file.toPath();
+        final Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.entries.values().stream().mapToInt(Map::size).sum());
+            final byte[] id = new byte[20];
+            for (final Map.Entry<String, LinkedHashMap<BlobKey, ObjectId>> bucket : this.entries.entrySet()) {
+                for (final Map.Entry<BlobKey, ObjectId> entry : bucket.getValue().entrySet()) {
+                    out.writeUTF(bucket.getKey());
+                    out.writeLong(entry.getKey().getSize());
+                    out.writeLong(entry.getKey().getCrc());
+                    entry.getValue().copyRawTo(id, 0);
+                    out.write(id);
+                }
+            }
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.dirty = false;
+    }
+
+    private LinkedHashMap<BlobKey, ObjectId> bucket(final String path) {
+        return this.entries.computeIfAbsent(path, p -> new LinkedHashMap<BlobKey, ObjectId>(8, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<BlobKey, ObjectId> eldest) {
+                return this.size() > ENTRIES_PER_PATH;
+            }
+        });
+    }
+}
@@ -0,0 +1,40 @@
+package buildSrc.utils.git;
+
+/**
+ * Identifies the content of a file through the uncompressed size and CRC32 of the zip entry it was extracted from.
+ */
+public final class BlobKey {
+    private final long size;
+    private final long crc;
+
+    public BlobKey(final long size, final long crc) {
+        this.size = size;
+        this.crc = crc;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getCrc() {
+        return this.crc;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BlobKey)) return false;
+        final BlobKey key = (BlobKey) o;
+        return this.size == key.size && this.crc == key.crc;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.size) * 31 + Long.hashCode(this.crc);
+    }
+
+    @Override
+    public String toString() {
+        return this.size + "/" + Long.toHexString(this.crc);
+    }
+}
@@ -0,0 +1,77 @@
+package buildSrc.utils.git;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes blobs into a repository from any number of threads, and skips content which the {@link BlobCache} already knows.
+ *
+ * <p>Object inserters are not thread safe, so every blob is written through its own inserter. Cached blob ids are only
+ * trusted if the repository still has the object.</p>
+ */
+public final class BlobWriter {
+
+    /**
+     * Opens the content of a blob, only called if the blob is not cached.
+     */
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    private final Repository repository;
+    @Nullable
+    private final BlobCache cache;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    public BlobWriter(final Repository repository, @Nullable final BlobCache cache) {
+        this.repository = repository;
+        this.cache = cache;
+    }
+
+    /**
+     * @param path The path of the blob in the tree, which is part of the cache key.
+     * @param key The content key of the blob, or null if it is not known.
+     * @param length The length of the content.
+     * @return The id of the blob.
+     */
+    public ObjectId write(final String path, @Nullable final BlobKey key, final long length, final ContentSource source) throws IOException {
+        if (this.cache != null && key != null) {
+            final ObjectId cached = this.cache.get(path, key);
+            if (cached != null && this.repository.hasObject(cached)) {
+                this.reused.incrementAndGet();
+                return cached;
+            }
+        }
+
+        final ObjectId blob;
+        final ObjectInserter inserter = this.repository.newObjectInserter();
+        try (InputStream in = source.open()) {
+            blob = inserter.insert(Constants.OBJ_BLOB, length, in);
+            inserter.flush();
+        } finally {
+            inserter.release();
+        }
+        this.written.incrementAndGet();
+
+        if (this.cache != null && key != null) {
+            this.cache.put(path, key, blob);
+        }
+        return blob;
+    }
+
+    public int getWritten() {
+        return this.written.get();
+    }
+
+    public int getReused() {
+        return this.reused.get();
+    }
+}
@@ -0,0 +1,140 @@
+package buildSrc.utils.git;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.*;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates commits by editing the index in place, without walking the working tree.
+ */
+public final class GitCommits {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GitCommits.class);
+
+    private GitCommits() {
+        throw new IllegalStateException("Can not instantiate an instance of: GitCommits. This is a utility class");
+    }
+
+    /**
+     * Stages exactly the given paths from the working tree, and commits the resulting index on top of HEAD.
+     * Paths whose file exists are added or updated, all others are removed from the index.
+     *
+     * <p>The blobs of the files are written in parallel. Files whose content key is known and cached are not read at all.</p>
+     *
+     * @param paths The paths to stage, relative to the working tree and separated by '/', with the key of their content if it is known.
+     * @param cache The cache of blobs which were committed before, updated with the new blobs.
+     * @return The id of the new commit.
+     */
+    public static ObjectId commitPaths(final Repository repository, final Map<String, BlobKey> paths, final String message, @Nullable final BlobCache cache) throws IOException {
+        final File workTree = repository.getWorkTree();
+        final BlobWriter blobs = new BlobWriter(repository, cache);
+        final Map<String, DirCacheEntry> staged = new ConcurrentHashMap<>();
+        try {
+            paths.entrySet().parallelStream().forEach(change -> {
+                final File file = new File(workTree, change.getKey());
+                if (!file.isFile())
+                    return;
+
+                final long length = file.length();
+                final long lastModified = file.lastModified();
+                // A file which was changed after its extraction no longer matches its key.
+                final BlobKey key = change.getValue() != null && change.getValue().getSize() == length ? change.getValue() : null;
+                final DirCacheEntry entry = new DirCacheEntry(change.getKey());
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setLength(length);
+                entry.setLastModified(lastModified);
+                try {
+                    entry.setObjectId(blobs.write(change.getKey(), key, length, () -> new FileInputStream(file)));
+                } catch (final IOException e) {
+                    throw new UncheckedIOException("Failed to stage " + file, e);
+                }
+                staged.put(change.getKey(), entry);
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final DirCache index = repository.lockDirCache();
+        try {
+            final DirCacheEditor editor = index.editor();
+            for (final String path : paths.keySet()) {
+                final DirCacheEntry stagedEntry = staged.get(path);
+                if (stagedEntry != null) {
+                    editor.add(new DirCacheEditor.PathEdit(stagedEntry) {
+                        @Override
+                        public void apply(final DirCacheEntry entry) {
+                            entry.copyMetaData(stagedEntry);
+                        }
+                    });
+                } else {
+                    editor.add(new DirCacheEditor.DeletePath(path));
+                }
+            }
+            editor.finish();
+
+            final ObjectId commit = commitIndex(repository, inserter, index, message);
+            // Only persist the index once the objects it references are written, and HEAD points at them.
+            index.write();
+            if (!index.commit()) {
+                throw new IOException("Could not update the index of " + repository.getDirectory());
+            }
+            LOGGER.info("Committed {} paths of {}: {} blobs written, {} reused", paths.size(), workTree, blobs.getWritten(), blobs.getReused());
+            return commit;
+        } finally {
+            index.unlock();
+            inserter.release();
+        }
+    }
+
+    /**
+     * Commits the given index on top of HEAD, without touching the index or the working tree of the repository.
+     *
+     * @param snapshot The complete content of the commit, usually an in-core {@link DirCache} whose blobs were inserted through the given inserter.
+     * @return The id of the new commit.
+     */
+    public static ObjectId commitSnapshot(final Repository repository, final ObjectInserter inserter, final DirCache snapshot, final String message) throws IOException {
+        return commitIndex(repository, inserter, snapshot, message);
+    }
+
+    private static ObjectId commitIndex(final Repository repository, final ObjectInserter inserter, final DirCache index, final String message) throws IOException {
+        final ObjectId tree = index.writeTree(inserter);
+        final ObjectId head = repository.resolve(Constants.HEAD + "^{commit}");
+
+        final PersonIdent ident = new PersonIdent(repository);
+        final CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(tree);
+        if (head != null) {
+            builder.setParentId(head);
+        }
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage(message);
+        final ObjectId commit = inserter.insert(builder);
+        inserter.flush();
+
+        final RefUpdate update = repository.updateRef(Constants.HEAD);
+        update.setNewObjectId(commit);
+        update.setExpectedOldObjectId(head != null ? head : ObjectId.zeroId());
+        update.setRefLogMessage((head != null ? "commit: " : "commit (initial): ") + message, false);
+        final RefUpdate.Result result = update.update();
+        switch (result) {
+            case NEW:
+            case FAST_FORWARD:
+            case FORCED:
+                return commit;
+            default:
+                throw new IOException("Could not move HEAD of " + repository.getDirectory() + " to " + commit.name() + ": " + result);
+        }
+    }
+}
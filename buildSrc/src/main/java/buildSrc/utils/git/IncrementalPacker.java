@@ -0,0 +1,151 @@
+package buildSrc.utils.git;
+
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Moves the objects of the commits since the last run into a new pack, and prunes their loose copies.
+ *
+ * <p>The commit which was packed last is remembered in the git directory, so every run only packs the objects which
+ * are reachable from HEAD but not from that commit. Consecutive versions of a file end up in the same pack, where
+ * they are stored as deltas of each other. The pack is only published once it and its index are complete, and loose
+ * objects are only deleted once the pack is visible, so readers and writers in other threads never miss an object.</p>
+ */
+public final class IncrementalPacker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalPacker.class);
+    private static final String PACKED_HEAD = "minecraft-packed";
+
+    private IncrementalPacker() {
+        throw new IllegalStateException("Can not instantiate an instance of: IncrementalPacker. This is a utility class");
+    }
+
+    /**
+     * Packs the objects of the repository which were committed since the last call.
+     *
+     * @return The amount of objects which were packed.
+     */
+    public static int pack(final File gitDirectory) throws IOException {
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDirectory).build();
+        try {
+            final ObjectId head = repository.resolve(Constants.HEAD + "^{commit}");
+            final ObjectId packed = readPackedHead(gitDirectory, repository);
+            if (head == null || head.equals(packed))
+                return 0;
+
+            final ObjectDirectory objects = (ObjectDirectory) repository.getObjectDatabase();
+            final File packDirectory = new File(objects.getDirectory(), "pack");
+            Files.createDirectories(packDirectory.toPath());
+
+            final PackWriter writer = new PackWriter(repository);
+            try {
+                writer.setDeltaBaseAsOffset(true);
+                final Set<ObjectId> have = packed == null ? Collections.<ObjectId>emptySet() : Collections.singleton(packed);
+                writer.preparePack(NullProgressMonitor.INSTANCE, Collections.singleton(head), have);
+                if (writer.getObjectCount() == 0) {
+                    writePackedHead(gitDirectory, head);
+                    return 0;
+                }
+
+                final String name = "pack-" + writer.computeName().name();
+                final File pack = new File(packDirectory, name + ".pack");
+                final File index = new File(packDirectory, name + ".idx");
+                final File tempPack = new File(packDirectory, name + ".pack.tmp");
+                final File tempIndex = new File(packDirectory, name + ".idx.tmp");
+                try {
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempPack))) {
+                        writer.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, out);
+                    }
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempIndex))) {
+                        writer.writeIndex(out);
+                    }
+                    // Git only considers packs with an index, so the pack has to be in place first.
+                    move(tempPack, pack);
+                    move(tempIndex, index);
+                } finally {
+                    Files.deleteIfExists(tempPack.toPath());
+                    Files.deleteIfExists(tempIndex.toPath());
+                }
+                objects.openPack(pack);
+
+                final int pruned = pruneLoose(objects.getDirectory(), index);
+                writePackedHead(gitDirectory, head);
+                LOGGER.info("Packed {} objects of {} into {}, pruned {} loose objects", writer.getObjectCount(), gitDirectory, name, pruned);
+                return (int) writer.getObjectCount();
+            } finally {
+                writer.release();
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    private static int pruneLoose(final File objectDirectory, final File index) throws IOException {
+        int pruned = 0;
+        for (final PackIndex.MutableEntry entry : PackIndex.open(index)) {
+            final String id = entry.name();
+            final File loose = new File(new File(objectDirectory, id.substring(0, 2)), id.substring(2));
+            if (loose.delete()) {
+                pruned++;
+            }
+        }
+
+        final File[] fanout = objectDirectory.listFiles((dir, name) -> name.length() == 2);
+        if (fanout != null) {
+            for (final File directory : fanout) {
+                final String[] children = directory.list();
+                if (children != null && children.length == 0) {
+                    directory.delete();
+                }
+            }
+        }
+        return pruned;
+    }
+
+    @Nullable
+    private static ObjectId readPackedHead(final File gitDirectory, final Repository repository) throws IOException {
+        final File file = new File(gitDirectory, PACKED_HEAD);
+        if (!file.exists())
+            return null;
+
+        final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+        if (!ObjectId.isId(content))
+            return null;
+
+        final ObjectId id = ObjectId.fromString(content);
+        // A history which was rewritten, for example by a clean, no longer contains the commit.
+        return repository.hasObject(id) ? id : null;
+    }
+
+    private static void writePackedHead(final File gitDirectory, final ObjectId head) throws IOException {
+        final Path file = new File(gitDirectory, PACKED_HEAD).toPath();
+        final Path temp = file.resolveSibling(PACKED_HEAD + ".tmp");
+        Files.write(temp, (head.name() + "\n").getBytes(StandardCharsets.US_ASCII));
+        move(temp.toFile(), file.toFile());
+    }
+
+    private static void move(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package buildSrc.utils.git;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The paths which were touched in a working tree since its last commit.
+ *
+ * <p>Writers append the absolute paths of the files they wrote or deleted, and the committer consumes the list once the
+ * touched files are staged. Changes of several writers, or of several runs whose commit failed, accumulate until they are
+ * committed. A writer which does not know what it touched marks the list as incomplete, and a missing list is treated the
+ * same way, so the committer falls back to scanning the whole working tree.</p>
+ */
+public final class PendingChanges {
+    private static final String INCOMPLETE = "*";
+
+    private final File file;
+
+    public PendingChanges(final File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Records the given files as touched.
+     */
+    public void append(final Collection<Path> paths) throws IOException {
+        final Map<Path, BlobKey> keys = new LinkedHashMap<>();
+        for (final Path path : paths) {
+            keys.put(path, null);
+        }
+        this.append(keys);
+    }
+
+    /**
+     * Records the given files as touched, together with the key of their content if it is known.
+     */
+    public synchronized void append(final Map<Path, BlobKey> paths) throws IOException {
+        Files.createDirectories(this.file.getAbsoluteFile().getParentFile().toPath());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), StandardCharsets.UTF_8))) {
+            for (final Map.Entry<Path, BlobKey> entry : paths.entrySet()) {
+                final BlobKey key = entry.getValue();
+                writer.write(key == null ? "-1\t-1\t" : key.getSize() + "\t" + key.getCrc() + "\t");
+                writer.write(entry.getKey().toAbsolutePath().normalize().toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Records that files were touched which are not known, so the next commit has to scan the whole working tree.
+     */
+    public synchronized void markIncomplete() throws IOException {
+        Files.createDirectories(this.file.getAbsoluteFile().getParentFile().toPath());
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(this.file, true), StandardCharsets.UTF_8)) {
+            writer.write(INCOMPLETE + '\n');
+        }
+    }
+
+    /**
+     * @return The touched files with the key of their content, if it is known, or null if the files are not known.
+     * A file which was touched several times is reported with its last key.
+     */
+    @Nullable
+    public synchronized Map<Path, BlobKey> read() throws IOException {
+        if (!this.file.exists())
+            return null;
+
+        final Map<Path, BlobKey> paths = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(this.file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(INCOMPLETE))
+                    return null;
+                if (line.isEmpty())
+                    continue;
+
+                final int sizeEnd = line.indexOf('\t');
+                final int crcEnd = line.indexOf('\t', sizeEnd + 1);
+                if (sizeEnd < 0 || crcEnd < 0)
+                    return null;
+
+                final long size = Long.parseLong(line.substring(0, sizeEnd));
+                final long crc = Long.parseLong(line.substring(sizeEnd + 1, crcEnd));
+                paths.put(Paths.get(line.substring(crcEnd + 1)), size < 0 ? null : new BlobKey(size, crc));
+            }
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+        return paths;
+    }
+
+    /**
+     * Forgets all recorded changes, after they have been committed.
+     */
+    public synchronized void clear() throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+}
@@ -0,0 +1,118 @@
+package buildSrc.utils.merge;
+
+import buildSrc.utils.Utils;
+import buildSrc.utils.extract.SourceRouter;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Extracts the game itself from a dedicated server jar.
+ *
+ * <p>Newer server jars are bundles, which carry the game as a nested jar listed in {@code META-INF/versions.list}.
+ * Older server jars have their libraries shaded in. In both cases only the classes which are named by the server
+ * mappings are kept, together with the resources the {@link SourceRouter} accepts outside of {@code META-INF}.</p>
+ */
+public final class ServerJarUnbundler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerJarUnbundler.class);
+
+    private static final String VERSIONS_LIST = "META-INF/versions.list";
+    private static final Pattern CLASS_MAPPING = Pattern.compile("^(\\S+) -> (\\S+):$");
+
+    private ServerJarUnbundler() {
+        throw new IllegalStateException("Can not instantiate an instance of: ServerJarUnbundler. This is a utility class");
+    }
+
+    /**
+     * @param serverJar The jar as it was downloaded.
+     * @param mappings The ProGuard mappings of the server, whose obfuscated class names select the game classes.
+     * @param router Selects the resources which belong to the game.
+     * @param output The jar which receives the game classes and resources.
+     */
+    public static void unbundle(final File serverJar, final File mappings, final SourceRouter router, final File output) throws IOException {
+        final Set<String> classes = readObfuscatedClasses(mappings);
+
+        try (ZipFile zip = new ZipFile(serverJar)) {
+            final ZipEntry bundled = findBundledJar(zip, serverJar);
+            try (InputStream source = bundled != null ? zip.getInputStream(bundled) : new FileInputStream(serverJar);
+                 ZipInputStream in = new ZipInputStream(new BufferedInputStream(source));
+                 ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+                int kept = 0;
+                int dropped = 0;
+                for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                    if (entry.isDirectory())
+                        continue;
+
+                    if (!isGameEntry(entry.getName(), classes, router)) {
+                        dropped++;
+                        continue;
+                    }
+
+                    out.putNextEntry(Utils.getStableEntry(entry.getName()));
+                    IOUtils.copy(in, out);
+                    out.closeEntry();
+                    kept++;
+                }
+                LOGGER.warn("Unbundled {} game entries of {}, dropped {} library entries", kept, serverJar, dropped);
+            }
+        }
+    }
+
+    /**
+     * @return The entry of the nested game jar of a server bundle, or null if the jar is not a bundle.
+     */
+    @Nullable
+    private static ZipEntry findBundledJar(final ZipFile zip, final File serverJar) throws IOException {
+        final ZipEntry list = zip.getEntry(VERSIONS_LIST);
+        if (list == null)
+            return null;
+
+        final String line;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(list), StandardCharsets.UTF_8))) {
+            line = reader.readLine();
+        }
+
+        // <sha256>\t<id>\t<path below META-INF/versions>
+        final String[] parts = line == null ? new String[0] : line.split("\t");
+        if (parts.length != 3)
+            throw new IOException("Malformed " + VERSIONS_LIST + " in " + serverJar);
+
+        final ZipEntry nested = zip.getEntry("META-INF/versions/" + parts[2]);
+        if (nested == null)
+            throw new IOException("The server bundle " + serverJar + " lists the missing jar " + parts[2]);
+        return nested;
+    }
+
+    private static boolean isGameEntry(final String name, final Set<String> classes, final SourceRouter router) {
+        if (name.endsWith(".class")) {
+            final String className = name.substring(0, name.length() - ".class".length());
+            final int inner = className.indexOf('$');
+            return classes.contains(className) || (inner > 0 && classes.contains(className.substring(0, inner)));
+        }
+        return !name.startsWith("META-INF/") && router.isResource(name);
+    }
+
+    private static Set<String> readObfuscatedClasses(final File mappings) throws IOException {
+        final Set<String> classes = new HashSet<>();
+        for (final String line : Files.readAllLines(mappings.toPath(), StandardCharsets.UTF_8)) {
+            final Matcher matcher = CLASS_MAPPING.matcher(line);
+            if (matcher.matches()) {
+                classes.add(matcher.group(2).replace('.', '/'));
+            }
+        }
+        return classes;
+    }
+}
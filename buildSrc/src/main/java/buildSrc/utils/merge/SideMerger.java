@@ -0,0 +1,90 @@
+package buildSrc.utils.merge;
+
+import buildSrc.utils.Utils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Joins the decompiled client and server jars into one jar, which holds every file once.
+ *
+ * <p>Files which are identical on both sides are kept at their path. Files which exist on one side only, or whose
+ * content differs between the sides, are moved below {@link #CLIENT} or {@link #SERVER}, so each side is the common
+ * files plus its own directory.</p>
+ */
+public final class SideMerger {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SideMerger.class);
+
+    public static final String CLIENT = "client";
+    public static final String SERVER = "server";
+
+    private SideMerger() {
+        throw new IllegalStateException("Can not instantiate an instance of: SideMerger. This is a utility class");
+    }
+
+    public static void merge(final File clientJar, final File serverJar, final File output) throws IOException {
+        try (ZipFile client = new ZipFile(clientJar);
+             ZipFile server = new ZipFile(serverJar);
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            final SortedSet<String> names = new TreeSet<>();
+            names.addAll(fileNames(client));
+            names.addAll(fileNames(server));
+
+            int common = 0;
+            int clientOnly = 0;
+            int serverOnly = 0;
+            for (final String name : names) {
+                final byte[] clientData = read(client, name);
+                final byte[] serverData = read(server, name);
+                if (clientData != null && Arrays.equals(clientData, serverData)) {
+                    write(out, name, clientData);
+                    common++;
+                    continue;
+                }
+
+                if (clientData != null) {
+                    write(out, CLIENT + "/" + name, clientData);
+                    clientOnly++;
+                }
+                if (serverData != null) {
+                    write(out, SERVER + "/" + name, serverData);
+                    serverOnly++;
+                }
+            }
+            LOGGER.warn("Merged {} common files, {} client files and {} server files", common, clientOnly, serverOnly);
+        }
+    }
+
+    private static List<String> fileNames(final ZipFile zip) {
+        final List<String> names = new ArrayList<>();
+        for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+            final ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private static byte[] read(final ZipFile zip, final String name) throws IOException {
+        final ZipEntry entry = zip.getEntry(name);
+        if (entry == null)
+            return null;
+
+        try (InputStream in = zip.getInputStream(entry)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static void write(final ZipOutputStream out, final String name, final byte[] data) throws IOException {
+        out.putNextEntry(Utils.getStableEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+}
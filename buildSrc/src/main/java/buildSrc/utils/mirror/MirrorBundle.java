@@ -0,0 +1,189 @@
+package buildSrc.utils.mirror;
+
+import buildSrc.utils.HashFunction;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+/**
+ * A single archive which holds everything that is needed to set up a range of versions without network access.
+ *
+ * <p>Files which are fetched by url are stored under {@code http/<host>/<path>}, libraries are stored under
+ * {@code libraries/<maven path>}. The central directory of the archive is its index. Libraries are extracted
+ * into a local maven repository in one sequential pass, all other files are extracted when they are requested.</p>
+ */
+public final class MirrorBundle {
+
+    public static final String HTTP_PREFIX = "http/";
+    public static final String LIBRARIES_PREFIX = "libraries/";
+
+    private static final Map<Path, MirrorBundle> BUNDLES = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long size;
+    private final long modified;
+    private final ZipFile zip;
+
+    private MirrorBundle(final File file, final BasicFileAttributes attributes) throws IOException {
+        this.file = file;
+        this.size = attributes.size();
+        this.modified = attributes.lastModifiedTime().toMillis();
+        this.zip = new ZipFile(file);
+    }
+
+    /**
+     * Opens the bundle, reusing the already opened bundle of this daemon if the file did not change.
+     */
+    public static MirrorBundle open(final File file) throws IOException {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final MirrorBundle known = BUNDLES.get(path);
+        if (known != null && known.size == attributes.size() && known.modified == attributes.lastModifiedTime().toMillis())
+            return known;
+
+        final MirrorBundle bundle = new MirrorBundle(path.toFile(), attributes);
+        final MirrorBundle previous = BUNDLES.put(path, bundle);
+        if (previous != null) {
+            previous.zip.close();
+        }
+        return bundle;
+    }
+
+    public static String getEntryName(final URL url) {
+        return HTTP_PREFIX + url.getHost() + (url.getPath().startsWith("/") ? url.getPath() : "/" + url.getPath());
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public boolean contains(final URL url) {
+        return this.zip.getEntry(getEntryName(url)) != null;
+    }
+
+    /**
+     * Extracts the file of the given url.
+     *
+     * @param sha1 The expected SHA-1 of the file, or null when it is not known.
+     * @throws FileNotFoundException If the bundle does not contain the url.
+     */
+    public void extract(final URL url, final File target, @Nullable final String sha1) throws IOException {
+        final ZipEntry entry = this.zip.getEntry(getEntryName(url));
+        if (entry == null)
+            throw new FileNotFoundException("The mirror bundle " + this.file + " does not contain: " + url);
+
+        // Keep an identical file untouched, so everything which is derived from its timestamp stays valid.
+        if (target.exists() && target.length() == entry.getSize() && crc(target) == entry.getCrc())
+            return;
+
+        final File parent = target.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        final File part = new File(parent, target.getName() + ".part");
+        try (InputStream stream = this.zip.getInputStream(entry)) {
+            Files.copy(stream, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if (sha1 != null && !HashFunction.SHA1.hash(part).equalsIgnoreCase(sha1)) {
+            Files.delete(part.toPath());
+            throw new IOException(String.format("The mirror bundle entry of %s does not match the expected hash %s", url, sha1));
+        }
+        move(part, target);
+    }
+
+    /**
+     * Extracts all libraries into the given directory, which can then be used as a maven repository.
+     * Libraries which are already extracted with the same size and CRC are skipped.
+     */
+    public void extractLibraries(final File repository) throws IOException {
+        for (final Enumeration<? extends ZipEntry> entries = this.zip.entries(); entries.hasMoreElements(); ) {
+            final ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory() || !entry.getName().startsWith(LIBRARIES_PREFIX))
+                continue;
+
+            final File target = new File(repository, entry.getName().substring(LIBRARIES_PREFIX.length()));
+            if (target.exists() && target.length() == entry.getSize() && crc(target) == entry.getCrc())
+                continue;
+
+            Files.createDirectories(target.getParentFile().toPath());
+            final File part = new File(target.getParentFile(), target.getName() + ".part");
+            try (InputStream stream = this.zip.getInputStream(entry)) {
+                Files.copy(stream, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            move(part, target);
+        }
+    }
+
+    private static long crc(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void move(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes a mirror bundle. Archives are stored as is, everything else is compressed.
+     */
+    public static final class Writer implements Closeable {
+        private final ZipOutputStream output;
+        private final Set<String> written = new HashSet<>();
+
+        public Writer(final File target) throws IOException {
+            Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+            this.output = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+        }
+
+        public void add(final URL url, final File file) throws IOException {
+            this.add(getEntryName(url), file);
+        }
+
+        public void addLibrary(final String mavenPath, final File file) throws IOException {
+            this.add(LIBRARIES_PREFIX + mavenPath, file);
+        }
+
+        private void add(final String name, final File file) throws IOException {
+            if (!this.written.add(name))
+                return;
+
+            final ZipEntry entry = new ZipEntry(name);
+            entry.setTime(file.lastModified());
+            if (name.endsWith(".jar") || name.endsWith(".zip")) {
+                // Archives do not compress any further, store them so extraction is a plain copy.
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(file.length());
+                entry.setCompressedSize(file.length());
+                entry.setCrc(crc(file));
+            }
+
+            this.output.putNextEntry(entry);
+            Files.copy(file.toPath(), this.output);
+            this.output.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.output.close();
+        }
+    }
+}
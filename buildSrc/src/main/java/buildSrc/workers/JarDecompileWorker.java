@@ -1,11 +1,19 @@
 package buildSrc.workers;
 
+import buildSrc.utils.HashFunction;
+import buildSrc.utils.decompile.ClassReferenceCollector;
+import buildSrc.utils.decompile.DecompilationMemo;
+import buildSrc.utils.decompile.DecompilerLibraryCache;
 import buildSrc.utils.decompile.FernFlowerByteCodeProvider;
+import buildSrc.utils.decompile.LibraryHeaderIndex;
 import buildSrc.utils.decompile.LineMappingResultSaver;
+import buildSrc.utils.decompile.LineMappings;
 import buildSrc.utils.decompile.SLF4JFernFlowerLogger;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.workers.WorkAction;
 import org.gradle.workers.WorkParameters;
 import org.jetbrains.java.decompiler.main.Fernflower;
@@ -16,12 +24,13 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class JarDecompileWorker implements WorkAction<JarDecompileWorker.Parameters> {
     private static final Logger LOGGER = LoggerFactory.getLogger(JarDecompileWorker.class);
 
-    static final Map<String, Object> OPTIONS = new HashMap<>();
+    private static final Map<String, String> OPTIONS = new HashMap<>();
     private static final String TRUE = "1";
     private static final String FALSE = "0";
 
@@ -37,53 +46,104 @@ public abstract class JarDecompileWorker implements WorkAction<JarDecompileWorke
         JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, FALSE);
         JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.IGNORE_INVALID_BYTECODE, TRUE);
         JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.THREADS, Integer.toString(Runtime.getRuntime().availableProcessors() - 1));
         JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.INDENT_STRING, "    " /* Constants.INDENT */);
     }
 
+    /**
+     * The options which influence the output of the decompiler.
+     * Host dependent options, like the amount of threads, are not part of these and are only applied when the worker executes.
+     *
+     * @return A copy of the default decompiler options.
+     */
+    public static Map<String, String> getDefaultOptions() {
+        return new HashMap<>(OPTIONS);
+    }
+
     public static abstract class Parameters implements WorkParameters {
         public abstract ConfigurableFileCollection getDecompileClasspath();
         public abstract RegularFileProperty getInputJar();
         public abstract RegularFileProperty getOutputJar();
-        public abstract MapProperty<String, String> getExtraArgs();
+        public abstract RegularFileProperty getLineMappingFile();
+        public abstract MapProperty<String, String> getOptions();
+        public abstract Property<String> getDecompilerVersion();
+        public abstract DirectoryProperty getMemoDirectory();
+        public abstract DirectoryProperty getLibraryCacheDirectory();
     }
 
     @Override
     public void execute() {
         final Parameters params = this.getParameters();
 
-        final Map<String, Object> ffArgs = new HashMap<>(params.getExtraArgs().get());
-        for (final Map.Entry<String, Object> defaultArg : JarDecompileWorker.OPTIONS.entrySet()) {
-            ffArgs.putIfAbsent(defaultArg.getKey(), defaultArg.getValue()); // don't override user-specified options
-        }
+        final Map<String, Object> ffArgs = new HashMap<>(params.getOptions().get());
+        ffArgs.putIfAbsent(IFernflowerPreferences.THREADS, Integer.toString(Runtime.getRuntime().availableProcessors() - 1));
 
         // Decompile
         final File input = params.getInputJar().get().getAsFile();
+        final File output = params.getOutputJar().get().getAsFile();
+        final File pendingJar = new File(output.getParentFile(), output.getName() + ".pending.jar");
+        final File contextJar = new File(output.getParentFile(), output.getName() + ".context.jar");
+        final File classpathJar = new File(output.getParentFile(), output.getName() + ".classpath.jar");
         try (final FernFlowerByteCodeProvider bytecode = new FernFlowerByteCodeProvider()) {
+            final DecompilerLibraryCache libraryCache = params.getLibraryCacheDirectory().isPresent()
+                    ? DecompilerLibraryCache.get(params.getLibraryCacheDirectory().get().getAsFile().toPath())
+                    : null;
+
+            DecompilationMemo.Session memoSession = null;
+            if (params.getMemoDirectory().isPresent()) {
+                final String libraryHash = libraryCache != null
+                        ? libraryCache.hash(params.getDecompileClasspath())
+                        : HashFunction.SHA1.hash(params.getDecompileClasspath());
+                final DecompilationMemo memo = new DecompilationMemo(params.getMemoDirectory().get().getAsFile().toPath(), ffArgs, params.getDecompilerVersion().get(), libraryHash);
+                memoSession = memo.prepare(input, pendingJar, contextJar);
+            }
+
+            final LineMappingResultSaver saver = new LineMappingResultSaver(output, memoSession);
             final Fernflower decompiler = new Fernflower(
                     bytecode,
-                    new LineMappingResultSaver(input.getAbsolutePath(), params.getOutputJar().get().getAsFile(), bytecode),
+                    saver,
                     ffArgs,
                     new SLF4JFernFlowerLogger(JarDecompileWorker.LOGGER)
             );
 
-            // add classes
-            decompiler.addSource(input);
+            // add classes, when using the memo only the classes which are missing from it are decompiled
+            if (memoSession != null) {
+                decompiler.addSource(pendingJar);
+                decompiler.addLibrary(contextJar);
+            } else {
+                decompiler.addSource(input);
+            }
+
+            if (libraryCache != null) {
+                // Only hand the decompiler the stripped library classes the input can actually reach
+                final List<LibraryHeaderIndex> libraries = libraryCache.prepare(params.getDecompileClasspath());
 
-            for (final File library : params.getDecompileClasspath()) {
-                decompiler.addLibrary(library);
+                final int libraryClasses = LibraryHeaderIndex.writeClasspathJar(libraries, ClassReferenceCollector.collect(input), classpathJar);
+                JarDecompileWorker.LOGGER.warn("Loading {} library classes from {} libraries", libraryClasses, libraries.size());
+                decompiler.addLibrary(classpathJar);
+            } else {
+                for (final File library : params.getDecompileClasspath()) {
+                    decompiler.addLibrary(library);
+                }
             }
 
             // perform the decompile
             try {
                 decompiler.decompileContext();
-                JarDecompileWorker.LOGGER.warn("Successfully decompiled to {}", params.getOutputJar().get().getAsFile());
+                JarDecompileWorker.LOGGER.warn("Successfully decompiled to {}", output);
+
+                // The mappings are applied to the bytecode by a separate stage, the input jar stays untouched
+                LineMappings.write(saver.getMappings(), params.getLineMappingFile().get().getAsFile());
             } finally {
                 decompiler.clearContext();
                 System.gc();
             }
         } catch (final IOException e) {
-             LOGGER.error("Failed to decompile {}", input, e);
+            // Fail the task, a half written jar must never end up in the build cache
+            throw new RuntimeException("Failed to decompile " + input, e);
+        } finally {
+            pendingJar.delete();
+            contextJar.delete();
+            classpathJar.delete();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package buildSrc.workers;
+
+import buildSrc.utils.Utils;
+import buildSrc.utils.decompile.LineMap;
+import buildSrc.utils.decompile.LineMappingVisitor;
+import buildSrc.utils.decompile.LineMappings;
+import buildSrc.utils.decompile.MappedJarFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.ZipOutputStream;
+
+public abstract class JarLineMappingWorker implements WorkAction<JarLineMappingWorker.Parameters> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarLineMappingWorker.class);
+
+    public static abstract class Parameters implements WorkParameters {
+        public abstract RegularFileProperty getInputJar();
+        public abstract RegularFileProperty getLineMappingFile();
+        public abstract RegularFileProperty getOutputJar();
+    }
+
+    @Override
+    public void execute() {
+        final Parameters parameters = getParameters();
+
+        try {
+            final LineMappings mappings = LineMappings.open(parameters.getLineMappingFile().get().getAsFile().toPath());
+            final MappedJarFile input = MappedJarFile.open(parameters.getInputJar().get().getAsFile().toPath());
+            final List<String> names = new ArrayList<>(input.getEntryNames());
+
+            // Rewrite all classes on all cores, then write the results in the original order
+            final byte[][] contents = new byte[names.size()][];
+            IntStream.range(0, names.size()).parallel().forEach(index -> {
+                final String name = names.get(index);
+                try {
+                    final byte[] data = input.read(name);
+                    final LineMap mapping = name.endsWith(".class") ? mappings.get(name.substring(0, name.length() - ".class".length())) : null;
+                    contents[index] = mapping == null ? data : remap(data, mapping);
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+
+            try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(parameters.getOutputJar().get().getAsFile())))) {
+                for (int i = 0; i < names.size(); i++) {
+                    out.putNextEntry(Utils.getStableEntry(names.get(i)));
+                    if (contents[i] != null) {
+                        out.write(contents[i]);
+                    }
+                    out.closeEntry();
+                }
+            }
+            LOGGER.warn("Remapped the lines of {} classes into {}", mappings.size(), parameters.getOutputJar().get().getAsFile());
+        } catch (final IOException | UncheckedIOException e) {
+            throw new RuntimeException("Failed to remap the line numbers of " + parameters.getInputJar().get().getAsFile(), e);
+        }
+    }
+
+    private static byte[] remap(final byte[] clazz, final LineMap mapping) {
+        final ClassReader reader = new ClassReader(clazz);
+        final ClassWriter output = new ClassWriter(reader, 0);
+        reader.accept(new LineMappingVisitor(output, mapping), 0);
+        return output.toByteArray();
+    }
+}
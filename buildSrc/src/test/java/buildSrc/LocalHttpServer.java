@@ -0,0 +1,143 @@
+package buildSrc;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * A stand-in for a remote file server, listening on a random port of the loopback interface.
+ *
+ * <p>Every request is recorded, so tests can check which files were fetched and with which headers.
+ * Requests are handled concurrently, like a real server would.</p>
+ */
+public final class LocalHttpServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    public LocalHttpServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * Serves the given path through the handler. The exchange is closed once the handler returns.
+     */
+    public void handle(final String path, final HttpHandler handler) {
+        this.server.createContext(path, exchange -> {
+            this.requests.add(new Request(exchange));
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    /**
+     * Serves the given path with a fixed body.
+     */
+    public void serve(final String path, final byte[] body) {
+        this.handle(path, exchange -> respond(exchange, 200, body));
+    }
+
+    public URL url(final String path) {
+        try {
+            return new URL("http", this.server.getAddress().getHostString(), this.server.getAddress().getPort(), path);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The requests for the given path, in the order they were received.
+     */
+    public List<Request> getRequests(final String path) {
+        return this.requests.stream().filter(request -> request.getPath().equals(path)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return The paths of all requests, in the order they were received.
+     */
+    public List<String> getRequestedPaths() {
+        return this.requests.stream().map(Request::getPath).collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public static void respond(final HttpExchange exchange, final int code, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    /**
+     * Answers a {@code Range: bytes=<offset>-} request with the remainder of the body.
+     */
+    public static void respondRange(final HttpExchange exchange, final byte[] body) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+        exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", offset, body.length - 1, body.length));
+        exchange.sendResponseHeaders(206, body.length - offset);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body, offset, body.length - offset);
+        }
+    }
+
+    /**
+     * Announces the full body, but drops the connection after the given amount of bytes.
+     */
+    public static void drop(final HttpExchange exchange, final byte[] body, final int length) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        final OutputStream stream = exchange.getResponseBody();
+        stream.write(body, 0, length);
+        stream.flush();
+        // The server closes the connection of a handler which fails.
+        throw new IOException("Dropped the connection after " + length + " of " + body.length + " bytes");
+    }
+
+    public static final class Request {
+        private final String method;
+        private final String path;
+        private final Headers headers;
+
+        private Request(final HttpExchange exchange) {
+            this.method = exchange.getRequestMethod();
+            this.path = exchange.getRequestURI().getPath();
+            this.headers = exchange.getRequestHeaders();
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getHeader(final String name) {
+            return this.headers.getFirst(name);
+        }
+    }
+}
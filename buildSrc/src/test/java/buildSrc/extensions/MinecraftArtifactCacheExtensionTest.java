@@ -0,0 +1,147 @@
+package buildSrc.extensions;
+
+import buildSrc.LocalHttpServer;
+import buildSrc.utils.GameArtifact;
+import buildSrc.utils.HashFunction;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MinecraftArtifactCacheExtensionTest {
+
+    private static final String VERSION = "1.0";
+    private static final Map<String, String> ARTIFACTS = new LinkedHashMap<>();
+
+    static {
+        ARTIFACTS.put("client", "/objects/client.jar");
+        ARTIFACTS.put("client_mappings", "/objects/client.txt");
+        ARTIFACTS.put("server", "/objects/server.jar");
+        ARTIFACTS.put("server_mappings", "/objects/server.txt");
+    }
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+    private final AtomicInteger maxActiveDownloads = new AtomicInteger();
+    private LocalHttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = new LocalHttpServer();
+
+        final StringBuilder downloads = new StringBuilder();
+        for (final Map.Entry<String, String> artifact : ARTIFACTS.entrySet()) {
+            final byte[] content = artifact.getKey().getBytes(StandardCharsets.UTF_8);
+            this.server.handle(artifact.getValue(), exchange -> {
+                // Hold every download for a moment, so downloads which are allowed to overlap actually do.
+                final int active = this.activeDownloads.incrementAndGet();
+                this.maxActiveDownloads.accumulateAndGet(active, Math::max);
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    this.activeDownloads.decrementAndGet();
+                }
+                LocalHttpServer.respond(exchange, 200, content);
+            });
+
+            if (downloads.length() > 0)
+                downloads.append(',');
+            downloads.append(String.format("\"%s\": {\"url\": \"%s\", \"sha1\": \"%s\", \"size\": %d}",
+                    artifact.getKey(), this.server.url(artifact.getValue()), HashFunction.SHA1.hash(content), content.length));
+        }
+
+        final byte[] versionJson = String.format("{\"id\": \"%s\", \"downloads\": {%s}}", VERSION, downloads).getBytes(StandardCharsets.UTF_8);
+        this.server.serve("/versions/" + VERSION + ".json", versionJson);
+
+        final byte[] launcherManifest = String.format(
+                "{\"latest\": {}, \"versions\": [{\"id\": \"%s\", \"type\": \"release\", \"url\": \"%s\", \"sha1\": \"%s\", \"releaseTime\": \"2020-01-01T00:00:00+00:00\"}]}",
+                VERSION, this.server.url("/versions/" + VERSION + ".json"), HashFunction.SHA1.hash(versionJson)
+        ).getBytes(StandardCharsets.UTF_8);
+        this.server.serve("/launcher_manifest.json", launcherManifest);
+    }
+
+    @After
+    public void stopServer() {
+        this.server.close();
+    }
+
+    @Test
+    public void fetchesOnlyTheRequestedArtifacts() throws IOException {
+        final MinecraftArtifactCacheExtension extension = this.createExtension(4);
+
+        final Map<GameArtifact, File> files = extension.cacheGameArtifacts(VERSION, Arrays.asList(GameArtifact.CLIENT_JAR, GameArtifact.CLIENT_MAPPINGS));
+
+        assertEquals(EnumSet.of(GameArtifact.CLIENT_JAR, GameArtifact.CLIENT_MAPPINGS), files.keySet());
+        assertEquals("client", new String(Files.readAllBytes(files.get(GameArtifact.CLIENT_JAR).toPath()), StandardCharsets.UTF_8));
+        assertEquals("client_mappings", new String(Files.readAllBytes(files.get(GameArtifact.CLIENT_MAPPINGS).toPath()), StandardCharsets.UTF_8));
+
+        assertEquals(
+                new HashSet<>(Arrays.asList("/launcher_manifest.json", "/versions/" + VERSION + ".json", ARTIFACTS.get("client"), ARTIFACTS.get("client_mappings"))),
+                new HashSet<>(this.server.getRequestedPaths())
+        );
+        assertEquals(1, this.server.getRequests(ARTIFACTS.get("client")).size());
+        assertEquals(1, this.server.getRequests(ARTIFACTS.get("client_mappings")).size());
+    }
+
+    @Test
+    public void limitsTheConcurrentDownloads() {
+        final MinecraftArtifactCacheExtension extension = this.createExtension(2);
+
+        final Map<GameArtifact, File> files = extension.cacheGameArtifacts(VERSION, EnumSet.allOf(GameArtifact.class));
+
+        assertEquals(EnumSet.allOf(GameArtifact.class), files.keySet());
+        for (final String path : ARTIFACTS.values()) {
+            assertEquals(1, this.server.getRequests(path).size());
+        }
+        assertTrue("At most 2 downloads may run at once, but " + this.maxActiveDownloads.get() + " did", this.maxActiveDownloads.get() <= 2);
+    }
+
+    @Test
+    public void reusesPrefetchedArtifacts() throws InterruptedException {
+        final MinecraftArtifactCacheExtension extension = this.createExtension(4);
+        extension.prefetchGameArtifacts(VERSION, Collections.singletonList(GameArtifact.SERVER_JAR));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (extension.getCacheFiles().size() < 3) {
+            assertTrue("The prefetch did not finish in time", System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+        assertEquals(1, this.server.getRequests(ARTIFACTS.get("server")).size());
+
+        final Map<GameArtifact, File> files = extension.cacheGameArtifacts(VERSION, Collections.singletonList(GameArtifact.SERVER_JAR));
+
+        assertTrue(files.get(GameArtifact.SERVER_JAR).isFile());
+        assertEquals(1, this.server.getRequests(ARTIFACTS.get("server")).size());
+        assertEquals(1, this.server.getRequests("/versions/" + VERSION + ".json").size());
+    }
+
+    private MinecraftArtifactCacheExtension createExtension(final int maxConcurrentDownloads) {
+        final Project project;
+        try {
+            project = ProjectBuilder.builder().withProjectDir(this.temp.newFolder("project")).build();
+            final MinecraftArtifactCacheExtension extension = project.getExtensions().create("minecraftArtifact", MinecraftArtifactCacheExtension.class, project);
+            extension.getCacheDirectory().set(this.temp.newFolder("cache"));
+            extension.getLauncherManifestUrl().set(this.server.url("/launcher_manifest.json").toString());
+            extension.getMaxConcurrentDownloads().set(maxConcurrentDownloads);
+            return extension;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
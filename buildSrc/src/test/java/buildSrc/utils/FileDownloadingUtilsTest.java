@@ -0,0 +1,277 @@
+package buildSrc.utils;
+
+import buildSrc.LocalHttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FileDownloadingUtilsTest {
+
+    private static final FileDownloadingUtils.RetryPolicy NO_DELAY = new FileDownloadingUtils.RetryPolicy(3, 0, 0);
+    private static final byte[] CONTENT = new byte[300 * 1024];
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+    private static final String CHANGED_LAST_MODIFIED = "Thu, 22 Oct 2015 07:28:00 GMT";
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private LocalHttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = new LocalHttpServer();
+    }
+
+    @After
+    public void stopServer() {
+        this.server.close();
+    }
+
+    @Test
+    public void resumesADroppedDownloadWithARangeRequest() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        this.server.handle("/file.bin", exchange -> {
+            if (attempts.incrementAndGet() == 1) {
+                LocalHttpServer.drop(exchange, CONTENT, CONTENT.length / 2);
+            } else {
+                LocalHttpServer.respondRange(exchange, CONTENT);
+            }
+        });
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        FileDownloadingUtils.download(this.server.url("/file.bin"), target, HashFunction.SHA1.hash(CONTENT), NO_DELAY);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertFalse(partOf(target).exists());
+
+        final List<LocalHttpServer.Request> requests = this.server.getRequests("/file.bin");
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).getHeader("Range"));
+        assertEquals("bytes=" + CONTENT.length / 2 + "-", requests.get(1).getHeader("Range"));
+    }
+
+    @Test
+    public void resumesAPartialFileOfAnEarlierBuild() throws IOException {
+        this.server.handle("/file.bin", exchange -> LocalHttpServer.respondRange(exchange, CONTENT));
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        Files.write(partOf(target).toPath(), Arrays.copyOf(CONTENT, 1000));
+        FileDownloadingUtils.download(this.server.url("/file.bin"), target, HashFunction.SHA1.hash(CONTENT), NO_DELAY);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertEquals("bytes=1000-", this.server.getRequests("/file.bin").get(0).getHeader("Range"));
+    }
+
+    @Test
+    public void restartsWhenTheServerIgnoresTheRange() throws IOException {
+        this.server.serve("/file.bin", CONTENT);
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        final byte[] stale = new byte[1000];
+        Arrays.fill(stale, (byte) 0xFF);
+        Files.write(partOf(target).toPath(), stale);
+        FileDownloadingUtils.download(this.server.url("/file.bin"), target, HashFunction.SHA1.hash(CONTENT), NO_DELAY);
+
+        // The server answered the range request with the whole file, which has to replace the partial file.
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        final List<LocalHttpServer.Request> requests = this.server.getRequests("/file.bin");
+        assertEquals(1, requests.size());
+        assertEquals("bytes=1000-", requests.get(0).getHeader("Range"));
+    }
+
+    @Test
+    public void hashMismatchLeavesNoFile() {
+        this.server.serve("/file.bin", CONTENT);
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        final URL url = this.server.url("/file.bin");
+        final String wrongHash = HashFunction.SHA1.hash("something else");
+        assertThrows(IOException.class, () -> FileDownloadingUtils.download(url, target, wrongHash, NO_DELAY));
+
+        assertFalse(target.exists());
+        assertFalse(partOf(target).exists());
+    }
+
+    @Test
+    public void retriesUntilTheServerRecovers() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        this.server.handle("/file.bin", exchange -> {
+            if (attempts.incrementAndGet() < 3) {
+                LocalHttpServer.respond(exchange, 503, new byte[0]);
+            } else {
+                LocalHttpServer.respond(exchange, 200, CONTENT);
+            }
+        });
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        FileDownloadingUtils.download(this.server.url("/file.bin"), target, HashFunction.SHA1.hash(CONTENT), NO_DELAY);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target.toPath()));
+        assertEquals(3, this.server.getRequests("/file.bin").size());
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() {
+        this.server.handle("/file.bin", exchange -> LocalHttpServer.respond(exchange, 503, new byte[0]));
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        final URL url = this.server.url("/file.bin");
+        assertThrows(IOException.class, () -> FileDownloadingUtils.download(url, target, null, NO_DELAY));
+
+        assertEquals(NO_DELAY.getMaxAttempts(), this.server.getRequests("/file.bin").size());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void doesNotRetryAClientError() {
+        this.server.handle("/file.bin", exchange -> LocalHttpServer.respond(exchange, 404, "Not Found".getBytes(StandardCharsets.UTF_8)));
+
+        final File target = new File(this.temp.getRoot(), "file.bin");
+        final URL url = this.server.url("/file.bin");
+        assertThrows(IOException.class, () -> FileDownloadingUtils.download(url, target, null, NO_DELAY));
+
+        assertEquals(1, this.server.getRequests("/file.bin").size());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToTheMaximalDelay() {
+        final FileDownloadingUtils.RetryPolicy policy = new FileDownloadingUtils.RetryPolicy(5, 100, 350);
+
+        assertEquals(100, policy.getDelay(1));
+        assertEquals(200, policy.getDelay(2));
+        assertEquals(350, policy.getDelay(3));
+        assertEquals(350, policy.getDelay(40));
+    }
+
+    @Test
+    public void doesNotRevalidateWithinTheTimeToLive() throws IOException {
+        this.server.serve("/manifest.json", "{\"new\": true}".getBytes(StandardCharsets.UTF_8));
+
+        final File target = new File(this.temp.getRoot(), "manifest.json");
+        Files.write(target.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        final Properties metadata = new Properties();
+        metadata.setProperty("fetchedAt", Long.toString(System.currentTimeMillis()));
+        writeMetadata(target, metadata);
+
+        FileDownloadingUtils.revalidate(this.server.url("/manifest.json"), target, TimeUnit.HOURS.toMillis(1), NO_DELAY);
+
+        assertTrue(this.server.getRequests("/manifest.json").isEmpty());
+        assertEquals("{}", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keepsTheFileWhenTheServerReportsItUnmodified() throws IOException {
+        this.server.handle("/manifest.json", exchange -> LocalHttpServer.respond(exchange, 304, new byte[0]));
+
+        final File target = new File(this.temp.getRoot(), "manifest.json");
+        Files.write(target.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        final long fetchedAt = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        final Properties metadata = new Properties();
+        metadata.setProperty("fetchedAt", Long.toString(fetchedAt));
+        metadata.setProperty("etag", "\"abc\"");
+        metadata.setProperty("lastModified", LAST_MODIFIED);
+        writeMetadata(target, metadata);
+
+        FileDownloadingUtils.revalidate(this.server.url("/manifest.json"), target, TimeUnit.HOURS.toMillis(1), NO_DELAY);
+
+        final List<LocalHttpServer.Request> requests = this.server.getRequests("/manifest.json");
+        assertEquals(1, requests.size());
+        assertEquals("\"abc\"", requests.get(0).getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, requests.get(0).getHeader("If-Modified-Since"));
+
+        assertEquals("{}", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+        final Properties refreshed = readMetadata(target);
+        assertTrue(Long.parseLong(refreshed.getProperty("fetchedAt")) > fetchedAt);
+        assertEquals("\"abc\"", refreshed.getProperty("etag"));
+        assertEquals(LAST_MODIFIED, refreshed.getProperty("lastModified"));
+    }
+
+    @Test
+    public void replacesTheFileAndItsMetadataWhenItChanged() throws IOException {
+        final byte[] changed = "{\"new\": true}".getBytes(StandardCharsets.UTF_8);
+        this.server.handle("/manifest.json", exchange -> {
+            exchange.getResponseHeaders().set("ETag", "\"def\"");
+            exchange.getResponseHeaders().set("Last-Modified", CHANGED_LAST_MODIFIED);
+            LocalHttpServer.respond(exchange, 200, changed);
+        });
+
+        final File target = new File(this.temp.getRoot(), "manifest.json");
+        Files.write(target.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        final long fetchedAt = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        final Properties metadata = new Properties();
+        metadata.setProperty("fetchedAt", Long.toString(fetchedAt));
+        metadata.setProperty("etag", "\"abc\"");
+        metadata.setProperty("lastModified", LAST_MODIFIED);
+        writeMetadata(target, metadata);
+
+        FileDownloadingUtils.revalidate(this.server.url("/manifest.json"), target, TimeUnit.HOURS.toMillis(1), NO_DELAY);
+
+        assertEquals(1, this.server.getRequests("/manifest.json").size());
+        assertArrayEquals(changed, Files.readAllBytes(target.toPath()));
+        final Properties refreshed = readMetadata(target);
+        assertTrue(Long.parseLong(refreshed.getProperty("fetchedAt")) > fetchedAt);
+        assertEquals("\"def\"", refreshed.getProperty("etag"));
+        assertEquals(CHANGED_LAST_MODIFIED, refreshed.getProperty("lastModified"));
+    }
+
+    @Test
+    public void downloadsAFileWithoutMetadataUnconditionally() throws IOException {
+        final byte[] manifest = "{\"new\": true}".getBytes(StandardCharsets.UTF_8);
+        this.server.handle("/manifest.json", exchange -> {
+            exchange.getResponseHeaders().set("ETag", "\"def\"");
+            LocalHttpServer.respond(exchange, 200, manifest);
+        });
+
+        final File target = new File(this.temp.getRoot(), "manifest.json");
+        FileDownloadingUtils.revalidate(this.server.url("/manifest.json"), target, TimeUnit.HOURS.toMillis(1), NO_DELAY);
+
+        final List<LocalHttpServer.Request> requests = this.server.getRequests("/manifest.json");
+        assertEquals(1, requests.size());
+        assertNull(requests.get(0).getHeader("If-None-Match"));
+        assertNull(requests.get(0).getHeader("If-Modified-Since"));
+        assertArrayEquals(manifest, Files.readAllBytes(target.toPath()));
+        assertEquals("\"def\"", readMetadata(target).getProperty("etag"));
+    }
+
+    private static File partOf(final File target) {
+        return new File(target.getParentFile(), target.getName() + ".part");
+    }
+
+    private static File metadataOf(final File target) {
+        return new File(target.getParentFile(), target.getName() + ".meta");
+    }
+
+    private static void writeMetadata(final File target, final Properties metadata) throws IOException {
+        try (OutputStream stream = new FileOutputStream(metadataOf(target))) {
+            metadata.store(stream, null);
+        }
+    }
+
+    private static Properties readMetadata(final File target) throws IOException {
+        final Properties metadata = new Properties();
+        try (InputStream stream = new FileInputStream(metadataOf(target))) {
+            metadata.load(stream);
+        }
+        return metadata;
+    }
+}